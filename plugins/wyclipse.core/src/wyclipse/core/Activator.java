@@ -28,6 +28,7 @@ package wyclipse.core;
 import java.net.URL;
 
 import org.eclipse.core.filesystem.URIUtil;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
@@ -35,6 +36,8 @@ import org.eclipse.core.runtime.Status;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import wyclipse.core.builder.WhileyBuilderSaveParticipant;
+
 /**
  * The activator class controls the plug-in life cycle
  */
@@ -52,6 +55,9 @@ public class Activator extends AbstractUIPlugin {
 	// marker ID
 	public static final String WYCLIPSE_MARKER_ID = "wyclipse.core.whileymarker";
 
+	// verification marker ID
+	public static final String WYCLIPSE_VERIFICATION_MARKER_ID = "wyclipse.core.verificationmarker";
+
 	// URL for Whiley Runtime Library
 	public static final String WHILEY_RUNTIME_JAR = "lib/wyrt.jar";
 	public static IPath WHILEY_RUNTIME_JAR_IPATH;
@@ -76,12 +82,17 @@ public class Activator extends AbstractUIPlugin {
 			URL url = FileLocator.resolve(context.getBundle().getEntry(
 					WHILEY_RUNTIME_JAR));
 			WHILEY_RUNTIME_JAR_IPATH = URIUtil.toPath(url.toURI());
-			System.out.println("WYRT PATH: " + WHILEY_RUNTIME_JAR_IPATH);
+			if (Trace.BUILDER) {
+				Trace.trace("WYRT PATH: " + WHILEY_RUNTIME_JAR_IPATH);
+			}
 		} catch (Exception e) {
 			getLog().log(
 					new Status(IStatus.ERROR, PLUGIN_ID,
 							"Error starting wyclipse plugin", e));
 		}
+		// Register to save the builder state when the workspace is saved
+		ResourcesPlugin.getWorkspace().addSaveParticipant(this,
+				new WhileyBuilderSaveParticipant());
 	}
 
 	/*
@@ -89,6 +100,7 @@ public class Activator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {		
+		ResourcesPlugin.getWorkspace().removeSaveParticipant(this);
 		super.stop(context);
 	}
 
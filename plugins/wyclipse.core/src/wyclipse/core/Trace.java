@@ -0,0 +1,233 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyclipse.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+
+import wycc.util.Logger;
+
+/**
+ * <p>
+ * Provides tracing for the plugin, controlled by the debug options of the
+ * <code>wyclipse.core</code> bundle (see the <code>.options</code> file).
+ * These are only enabled when Eclipse is started in debug mode. Each category
+ * of tracing is a constant, which is read once at startup. Tracing statements
+ * are guarded by these, as follows:
+ * </p>
+ * 
+ * <pre>
+ * if (Trace.BUILDER) {
+ * 	Trace.trace(&quot;BUILDING: &quot; + delta.size() + &quot; source file(s).&quot;);
+ * }
+ * </pre>
+ * 
+ * <p>
+ * Thus, when tracing is disabled, not even the message is constructed. When
+ * it is enabled, messages are placed in a bounded buffer and written to the
+ * console by a background thread. This prevents the build from waiting on the
+ * console. Should the buffer fill up, the oldest messages are discarded (and
+ * the number discarded is reported).
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public final class Trace {
+
+	/**
+	 * The prefix of all debug options of this plugin.
+	 */
+	private static final String OPTIONS = "wyclipse.core/debug";
+
+	/**
+	 * Enables tracing in general. The other categories are only enabled if
+	 * this is.
+	 */
+	public static final boolean DEBUG = option(OPTIONS);
+
+	/**
+	 * Traces initialisation and configuration of the builder, along with
+	 * progress of each build.
+	 */
+	public static final boolean BUILDER = DEBUG && option(OPTIONS + "/builder");
+
+	/**
+	 * Traces each resource change seen by the builder.
+	 */
+	public static final boolean DELTA = DEBUG && option(OPTIONS + "/delta");
+
+	/**
+	 * Traces the messages logged by the compiler itself (e.g. the time taken
+	 * by each transform).
+	 */
+	public static final boolean COMPILER = DEBUG
+			&& option(OPTIONS + "/compiler");
+
+	/**
+	 * Traces verification.
+	 */
+	public static final boolean VERIFY = DEBUG && option(OPTIONS + "/verify");
+
+	/**
+	 * The maximum number of messages held before being written.
+	 */
+	private static final int CAPACITY = 1024;
+
+	private static final String[] buffer = new String[CAPACITY];
+
+	/**
+	 * The index of the oldest message in the buffer.
+	 */
+	private static int head;
+
+	/**
+	 * The number of messages in the buffer.
+	 */
+	private static int size;
+
+	/**
+	 * The number of messages discarded since the buffer was last written.
+	 */
+	private static int dropped;
+
+	/**
+	 * The thread which writes messages to the console, or null if it has not
+	 * been started yet.
+	 */
+	private static Thread writer;
+
+	private Trace() {
+	}
+
+	/**
+	 * Record a trace message. This should only be called when the relevant
+	 * category of tracing is enabled.
+	 * 
+	 * @param msg
+	 */
+	public static void trace(String msg) {
+		synchronized (buffer) {
+			if (size == CAPACITY) {
+				buffer[head] = null;
+				head = (head + 1) % CAPACITY;
+				size--;
+				dropped++;
+			}
+			buffer[(head + size) % CAPACITY] = msg;
+			size++;
+			if (writer == null) {
+				writer = new Thread("Wyclipse Trace") {
+					public void run() {
+						drain();
+					}
+				};
+				writer.setDaemon(true);
+				writer.start();
+			}
+			buffer.notify();
+		}
+	}
+
+	/**
+	 * Report a problem which doesn't prevent the build from continuing (e.g. a
+	 * library which could not be opened). This is written to the error log,
+	 * regardless of whether tracing is enabled.
+	 * 
+	 * @param msg
+	 */
+	public static void warning(String msg) {
+		Activator plugin = Activator.getDefault();
+		if (plugin != null) {
+			plugin.getLog().log(
+					new Status(IStatus.WARNING, Activator.PLUGIN_ID, msg));
+		}
+		if (DEBUG) {
+			trace("*** " + msg);
+		}
+	}
+
+	/**
+	 * Get a logger for the compiler which traces its messages, if the given
+	 * category is enabled. Otherwise, the logger discards them.
+	 * 
+	 * @param enabled
+	 * @return
+	 */
+	public static Logger logger(boolean enabled) {
+		if (!enabled) {
+			return Logger.NULL;
+		}
+		return new Logger() {
+			public void logTimedMessage(String msg, long time, long memory) {
+				trace(msg + " [" + time + "ms]");
+			}
+		};
+	}
+
+	/**
+	 * Write messages to the console as they arrive. This is run by the writer
+	 * thread, and never returns.
+	 */
+	private static void drain() {
+		List<String> messages = new ArrayList<String>();
+		while (true) {
+			int lost;
+			synchronized (buffer) {
+				while (size == 0) {
+					try {
+						buffer.wait();
+					} catch (InterruptedException e) {
+						// keep waiting
+					}
+				}
+				for (; size > 0; size--) {
+					messages.add(buffer[head]);
+					buffer[head] = null;
+					head = (head + 1) % CAPACITY;
+				}
+				lost = dropped;
+				dropped = 0;
+			}
+			if (lost > 0) {
+				System.err.println("*** " + lost + " TRACE MESSAGE(S) DROPPED");
+			}
+			for (String msg : messages) {
+				System.err.println(msg);
+			}
+			messages.clear();
+		}
+	}
+
+	private static boolean option(String name) {
+		return "true".equalsIgnoreCase(Platform.getDebugOption(name));
+	}
+}
@@ -146,6 +146,16 @@ public class WhileyNature implements IProjectNature {
 		this.whileyProjectBuilder = builder;
 	}
 	
+	/**
+	 * Return the builder associated with this nature, or null if the project
+	 * has not been built since the workspace was opened.
+	 * 
+	 * @return
+	 */
+	public WhileyProjectBuilder getWhileyProjectBuilder() {
+		return whileyProjectBuilder;
+	}
+	
 	/**
 	 * Return the mapping from standard library names to their absolute path
 	 * location. Standard libraries are effectively built in libraries (e.g.
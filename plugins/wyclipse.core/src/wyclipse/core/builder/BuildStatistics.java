@@ -0,0 +1,412 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyclipse.core.builder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.IProject;
+
+import wyclipse.core.Trace;
+
+import wyfs.lang.Path;
+
+/**
+ * <p>
+ * Records the time spent in each stage of building a project. A stage is
+ * either a builder (e.g. <code>"wyc"</code> for the Whiley Compiler), or a
+ * transform within the pipeline of a builder (e.g.
+ * <code>"wyc:ConstraintInline"</code>). Times are recorded both in total, and
+ * for each module built. This allows the cost of individual stages to be
+ * compared across versions of the compiler.
+ * </p>
+ * 
+ * <p>
+ * The statistics of each project are replaced at the start of each build, and
+ * can be obtained (e.g. for display) via <code>get()</code>. Verification
+ * runs asynchronously to the build and, hence, is recorded separately. Thus,
+ * each report describes a single build, or a single run of verification.
+ * Instances are thread safe, since modules may be verified concurrently.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class BuildStatistics {
+
+	/**
+	 * The kind of statistics describing the build of a project.
+	 */
+	public static final String BUILD = "build";
+
+	/**
+	 * The kind of statistics describing the verification of a project.
+	 */
+	public static final String VERIFICATION = "verify";
+
+	/**
+	 * The statistics of each project, indexed by project name and kind.
+	 */
+	private static final ConcurrentHashMap<String, BuildStatistics> projects = new ConcurrentHashMap<String, BuildStatistics>();
+
+	/**
+	 * Get the statistics of building a given project, creating them if
+	 * necessary.
+	 * 
+	 * @param project
+	 * @return
+	 */
+	public static BuildStatistics get(IProject project) {
+		return get(project, BUILD);
+	}
+
+	/**
+	 * Get the statistics of a given kind for a given project, creating them
+	 * if necessary.
+	 * 
+	 * @param project
+	 * @param kind
+	 *            --- either <code>BUILD</code> or <code>VERIFICATION</code>.
+	 * @return
+	 */
+	public static BuildStatistics get(IProject project, String kind) {
+		String key = project.getName() + "." + kind;
+		BuildStatistics statistics = projects.get(key);
+		if (statistics == null) {
+			statistics = new BuildStatistics(project, kind);
+			BuildStatistics existing = projects.putIfAbsent(key, statistics);
+			if (existing != null) {
+				statistics = existing;
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Get the statistics of all projects built so far.
+	 * 
+	 * @return
+	 */
+	public static List<BuildStatistics> all() {
+		return new ArrayList<BuildStatistics>(projects.values());
+	}
+
+	/**
+	 * The project whose build is described.
+	 */
+	private final IProject project;
+
+	/**
+	 * What is described, either <code>BUILD</code> or
+	 * <code>VERIFICATION</code>.
+	 */
+	private final String kind;
+
+	/**
+	 * The time (in milliseconds since the epoch) at which the build started.
+	 */
+	private long started;
+
+	/**
+	 * The duration (in nanoseconds) of the build, or -1 if it has not yet
+	 * finished.
+	 */
+	private long elapsed = -1;
+
+	/**
+	 * The time spent in each stage, across all modules.
+	 */
+	private final LinkedHashMap<String, Timer> stages = new LinkedHashMap<String, Timer>();
+
+	/**
+	 * The time spent in each stage for each module.
+	 */
+	private final LinkedHashMap<Path.ID, LinkedHashMap<String, Timer>> modules = new LinkedHashMap<Path.ID, LinkedHashMap<String, Timer>>();
+
+	private BuildStatistics(IProject project, String kind) {
+		this.project = project;
+		this.kind = kind;
+	}
+
+	public IProject project() {
+		return project;
+	}
+
+	public String kind() {
+		return kind;
+	}
+
+	/**
+	 * Discard everything recorded, in preparation for a new build.
+	 */
+	public synchronized void reset() {
+		stages.clear();
+		modules.clear();
+		started = System.currentTimeMillis();
+		elapsed = -1;
+	}
+
+	/**
+	 * Record the total duration of the build.
+	 * 
+	 * @param nanos
+	 */
+	public synchronized void finished(long nanos) {
+		elapsed = nanos;
+	}
+
+	/**
+	 * Record time spent in a given stage.
+	 * 
+	 * @param stage
+	 *            --- the builder or transform.
+	 * @param module
+	 *            --- the module being processed, or null if the time cannot
+	 *            be attributed to a single module.
+	 * @param nanos
+	 *            --- the time spent.
+	 */
+	public synchronized void record(String stage, Path.ID module, long nanos) {
+		timer(stages, stage).add(nanos);
+		if (module != null) {
+			LinkedHashMap<String, Timer> timers = modules.get(module);
+			if (timers == null) {
+				timers = new LinkedHashMap<String, Timer>();
+				modules.put(module, timers);
+			}
+			timer(timers, stage).add(nanos);
+		}
+	}
+
+	public synchronized long started() {
+		return started;
+	}
+
+	public synchronized long elapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * Get the time spent in each stage, in the order in which the stages were
+	 * first recorded.
+	 * 
+	 * @return
+	 */
+	public synchronized Map<String, Timer> stages() {
+		return copy(stages);
+	}
+
+	/**
+	 * Get the modules for which times have been recorded.
+	 * 
+	 * @return
+	 */
+	public synchronized List<Path.ID> modules() {
+		return new ArrayList<Path.ID>(modules.keySet());
+	}
+
+	/**
+	 * Get the time spent in each stage for a given module.
+	 * 
+	 * @param module
+	 * @return
+	 */
+	public synchronized Map<String, Timer> stages(Path.ID module) {
+		LinkedHashMap<String, Timer> timers = modules.get(module);
+		if (timers == null) {
+			return Collections.emptyMap();
+		}
+		return copy(timers);
+	}
+
+	/**
+	 * Write these statistics to a given file as a JSON object. This has the
+	 * form:
+	 * 
+	 * <pre>
+	 * {
+	 *   "project": "...",
+	 *   "started": 1234567890,
+	 *   "elapsed": 12.5,
+	 *   "stages": { "wyc": { "count": 2, "time": 10.25 }, ... },
+	 *   "modules": { "x/y": { "wyc:TypePropagation": { "count": 1, "time": 1.5 }, ... }, ... }
+	 * }
+	 * </pre>
+	 * 
+	 * Here, times are given in milliseconds.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public synchronized void write(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			out.println("{");
+			out.println("  \"project\": " + quote(project.getName()) + ",");
+			out.println("  \"started\": " + started + ",");
+			out.println("  \"elapsed\": "
+					+ (elapsed < 0 ? "null" : millis(elapsed)) + ",");
+			out.print("  \"stages\": ");
+			write(stages, out);
+			out.println(",");
+			out.println("  \"modules\": {");
+			int i = 0;
+			for (Map.Entry<Path.ID, LinkedHashMap<String, Timer>> e : modules
+					.entrySet()) {
+				out.print("    " + quote(e.getKey().toString()) + ": ");
+				write(e.getValue(), out);
+				out.println(++i == modules.size() ? "" : ",");
+			}
+			out.println("  }");
+			out.println("}");
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Unable to write " + file);
+		}
+	}
+
+	/**
+	 * Write these statistics to the report file of the project, as determined
+	 * by <code>WhileyProjectBuilder.getStatisticsFile()</code>. Failing to do
+	 * so does not affect the build, hence is only reported. If nothing was
+	 * timed (e.g. because the build was cancelled immediately), then the
+	 * report of the last build is kept instead.
+	 */
+	public void save() {
+		if (stages().isEmpty()) {
+			return;
+		}
+		try {
+			write(WhileyProjectBuilder.getStatisticsFile(project, kind));
+		} catch (IOException e) {
+			Trace.warning("Unable to write build statistics: "
+					+ e.getMessage());
+		}
+	}
+
+	private static void write(Map<String, Timer> timers, PrintWriter out) {
+		out.print("{");
+		int i = 0;
+		for (Map.Entry<String, Timer> e : timers.entrySet()) {
+			Timer timer = e.getValue();
+			out.print(i++ == 0 ? " " : ", ");
+			out.print(quote(e.getKey()) + ": { \"count\": " + timer.count()
+					+ ", \"time\": " + millis(timer.nanos()) + " }");
+		}
+		out.print(" }");
+	}
+
+	private static String millis(long nanos) {
+		return Double.toString(nanos / 1000000.0);
+	}
+
+	private static String quote(String s) {
+		StringBuilder r = new StringBuilder("\"");
+		for (int i = 0; i != s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				r.append('\\').append(c);
+			} else if (c < ' ') {
+				r.append(String.format("\\u%04x", (int) c));
+			} else {
+				r.append(c);
+			}
+		}
+		return r.append('"').toString();
+	}
+
+	private static Timer timer(Map<String, Timer> timers, String stage) {
+		Timer timer = timers.get(stage);
+		if (timer == null) {
+			timer = new Timer();
+			timers.put(stage, timer);
+		}
+		return timer;
+	}
+
+	private static Map<String, Timer> copy(Map<String, Timer> timers) {
+		LinkedHashMap<String, Timer> r = new LinkedHashMap<String, Timer>();
+		for (Map.Entry<String, Timer> e : timers.entrySet()) {
+			r.put(e.getKey(), e.getValue().copy());
+		}
+		return r;
+	}
+
+	/**
+	 * Accumulates the number of times a stage was applied, and the total time
+	 * spent in it.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	public static final class Timer {
+		private int count;
+		private long nanos;
+
+		private void add(long nanos) {
+			this.count++;
+			this.nanos += nanos;
+		}
+
+		private Timer copy() {
+			Timer timer = new Timer();
+			timer.count = count;
+			timer.nanos = nanos;
+			return timer;
+		}
+
+		/**
+		 * The number of times the stage was applied.
+		 * 
+		 * @return
+		 */
+		public int count() {
+			return count;
+		}
+
+		/**
+		 * The total time (in nanoseconds) spent in the stage.
+		 * 
+		 * @return
+		 */
+		public long nanos() {
+			return nanos;
+		}
+	}
+}
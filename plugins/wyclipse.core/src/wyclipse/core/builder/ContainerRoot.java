@@ -32,6 +32,10 @@ import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
@@ -55,6 +59,35 @@ import wyfs.util.Trie;
  */
 public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {	
 	private final IContainer dir;	
+
+	/**
+	 * Maps each file listed (or created) within this root to its entry. This
+	 * allows the entry for a given resource to be found without traversing the
+	 * whole folder hierarchy.
+	 */
+	private final HashMap<IResource, IFileEntry<?>> files = new HashMap<IResource, IFileEntry<?>>();
+
+	/**
+	 * Maps the full path of each folder listed (or created) within this root
+	 * to its entry. This allows the entry for the folder containing a given
+	 * resource to be found directly.
+	 */
+	private final HashMap<IPath, IFolderEntry> folders = new HashMap<IPath, IFolderEntry>();
+
+	/**
+	 * Maps the filesystem location of each file listed (or created) within
+	 * this root to its entry. Errors reported by the compiler identify files
+	 * only by their location, hence this allows them to be attributed to the
+	 * correct entry directly.
+	 */
+	private final HashMap<String, IFileEntry<?>> locations = new HashMap<String, IFileEntry<?>>();
+
+	/**
+	 * The members of each folder, as determined by the last full
+	 * synchronisation but not yet listed. These are used in place of querying
+	 * the folder when it is next listed.
+	 */
+	private final HashMap<IPath, List<IResource>> listings = new HashMap<IPath, List<IResource>>();
 		
 	/**
 	 * Construct a directory root from a given directory and file filter.
@@ -69,25 +102,52 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 		// constructor calls root(), all of which will happen before this.dir is
 		// assigned above.
 		root.dir = dir;
+		folders.put(dir.getFullPath(), root);
 	}
 
 	public IContainer getContainer() {
 		return dir;
 	}
 	
+	/**
+	 * Get the entry whose file is at a given filesystem location, or null if
+	 * no such entry has been listed (or created) within this root.
+	 * 
+	 * @param location
+	 *            --- as returned by <code>IFileEntry.location()</code>.
+	 * @return
+	 */
+	public IFileEntry<?> getLocation(String location) {
+		return locations.get(location);
+	}
+
+	/**
+	 * Get the entry corresponding to a given resource, or null if the resource
+	 * is not an entry of this root. Only the folders on the path to the
+	 * resource are listed (if they have not been already).
+	 * 
+	 * @param file
+	 * @return
+	 * @throws CoreException
+	 */
 	public IFileEntry<?> getResource(IResource file) throws CoreException {		
+		IFileEntry<?> entry = files.get(file);
+		if (entry != null || !(file instanceof IFile)
+				|| !dir.getFullPath().isPrefixOf(file.getFullPath())) {
+			return entry;
+		}
 		try {			
-			// instead of calling getAll, I could just do the traversal right
-			// here. That would save creating lots of objects to hold the
-			// intermediate results from getAll.
-			for(Entry<?> e : root.getAll()) {	
-				if (e instanceof IFileEntry) {
-					IFileEntry ife = (IFileEntry) e;
-					if (ife.file.equals(file)) {
-						return ife;
-					}
-				}
-			}			
+			// The folder containing this file may not have been listed yet.
+			// Looking anything up in the folder lists it and, hence, indexes
+			// the file.
+			IFolderEntry folder = getFolder(file.getParent());
+			if (folder != null) {
+				folder.subfolder(file.getFullPath().removeFileExtension()
+						.lastSegment());
+				return files.get(file);
+			}
+		} catch(CoreIOException e) {
+			throw e.payload;
 		} catch(RuntimeException e) {
 			throw e;
 		} catch(Exception other) {
@@ -96,6 +156,27 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 		}
 		return null;
 	}
+
+	/**
+	 * Get the entry corresponding to a given container within this root, or
+	 * null if there is none. Folders on the path to the container are listed
+	 * as necessary.
+	 * 
+	 * @param container
+	 * @return
+	 * @throws IOException
+	 */
+	protected IFolderEntry getFolder(IContainer container) throws IOException {
+		IFolderEntry folder = folders.get(container.getFullPath());
+		if (folder == null && container.getParent() != null
+				&& dir.getFullPath().isPrefixOf(container.getFullPath())) {
+			IFolderEntry parent = getFolder(container.getParent());
+			if (parent != null) {
+				folder = parent.subfolder(container.getName());
+			}
+		}
+		return folder;
+	}
 	
 	/**
 	 * Create an entry for the given resource (if appropriate). If the entry is
@@ -107,6 +188,12 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 	 * @throws CoreException
 	 */
 	public IFileEntry create(IResource resource) throws CoreException {
+		IFileEntry<?> existing = files.get(resource);
+		if (existing != null) {
+			// This can happen if the folder containing the resource was
+			// listed after the resource was created.
+			return existing;
+		}
 		IPath path = resource.getLocation();
 		IPath fullPath = dir.getLocation();
 		try {
@@ -142,7 +229,158 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 	}
 	
 	public void refresh() {
-		// TODO
+		// Discard the folder hierarchy, which is then rebuilt lazily from the
+		// underlying container when next accessed.
+		root.refresh();
+		listings.clear();
+	}
+
+	/**
+	 * <p>
+	 * Bring the folder hierarchy of this root up to date with a given resource
+	 * delta, without discarding all of it. Files and folders which are added
+	 * to a folder already listed are inserted into it. A folder from which
+	 * something is removed (or replaced) is discarded, and is listed again
+	 * when next accessed. Folders which have not been listed are unaffected,
+	 * as are changes to the contents of files.
+	 * </p>
+	 * 
+	 * <p>
+	 * Since entries may be discarded, those obtained from this root before
+	 * the refresh should be obtained again if this returns true.
+	 * </p>
+	 * 
+	 * @param delta
+	 *            --- a resource delta for the project (or workspace) containing
+	 *            this root.
+	 * @return True if any entries were discarded.
+	 * @throws CoreException
+	 */
+	public boolean refresh(IResourceDelta delta) throws CoreException {
+		if (!delta.getFullPath().isPrefixOf(dir.getFullPath())) {
+			return false;
+		}
+		IResourceDelta member = delta.findMember(dir.getFullPath()
+				.makeRelativeTo(delta.getFullPath()));
+		if (member == null) {
+			return false;
+		}
+		final boolean[] discarded = { false };
+		member.accept(new IResourceDeltaVisitor() {
+			public boolean visit(IResourceDelta delta) throws CoreException {
+				IResource resource = delta.getResource();
+				boolean replaced = (delta.getFlags() & IResourceDelta.REPLACED) != 0;
+				if (resource.equals(dir)) {
+					if (delta.getKind() == IResourceDelta.CHANGED && !replaced) {
+						return true;
+					}
+					root.refresh();
+					discarded[0] = true;
+					return false;
+				}
+				IFolderEntry parent = folders.get(resource.getParent()
+						.getFullPath());
+				if (parent == null || !parent.listed) {
+					// Nothing here has been listed yet.
+					return false;
+				}
+				if (delta.getKind() == IResourceDelta.ADDED && !replaced) {
+					try {
+						if (resource instanceof IFile) {
+							create(resource);
+						} else if (resource instanceof IFolder
+								&& !folders.containsKey(resource.getFullPath())) {
+							parent.insert((IFolder) resource);
+						}
+					} catch (CoreIOException e) {
+						throw e.payload;
+					} catch (IOException e) {
+						// deadcode
+					}
+					return false;
+				} else if (delta.getKind() == IResourceDelta.REMOVED || replaced) {
+					discarded[0] |= discard(resource);
+					return false;
+				}
+				return true;
+			}
+		});
+		return discarded[0];
+	}
+
+	/**
+	 * Discard the folder containing a given resource, if the resource is an
+	 * entry (or folder) of this root. This is used when the resource is about
+	 * to be (or has been) removed.
+	 * 
+	 * @param resource
+	 * @return True if the folder was discarded.
+	 */
+	public boolean discard(IResource resource) {
+		if (files.containsKey(resource)
+				|| folders.containsKey(resource.getFullPath())) {
+			IFolderEntry parent = folders.get(resource.getParent()
+					.getFullPath());
+			if (parent != null) {
+				parent.refresh();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Discard the folder hierarchy of this root, and determine the members of
+	 * every folder in a single traversal of the underlying container. This is
+	 * considerably faster than listing each folder separately, and is used
+	 * when no resource delta is available (e.g. when the workspace is opened).
+	 * 
+	 * @throws CoreException
+	 */
+	public void synchronise() throws CoreException {
+		refresh();
+		if (!dir.exists()) {
+			return;
+		}
+		dir.accept(new IResourceProxyVisitor() {
+			public boolean visit(IResourceProxy proxy) throws CoreException {
+				IPath path = proxy.requestFullPath();
+				if (proxy.getType() == IResource.FILE) {
+					if (isEntry(proxy.getName())) {
+						listing(path.removeLastSegments(1)).add(
+								proxy.requestResource());
+					}
+					return false;
+				} else {
+					if (!path.equals(dir.getFullPath())) {
+						listing(path.removeLastSegments(1)).add(
+								proxy.requestResource());
+					}
+					listing(path);
+					return true;
+				}
+			}
+		}, IResource.NONE);
+	}
+
+	private List<IResource> listing(IPath folder) {
+		List<IResource> members = listings.get(folder);
+		if (members == null) {
+			members = new ArrayList<IResource>();
+			listings.put(folder, members);
+		}
+		return members;
+	}
+
+	/**
+	 * Check whether a file with the given name is an entry of this root.
+	 * 
+	 * @param filename
+	 * @return
+	 */
+	private static boolean isEntry(String filename) {
+		// FIXME: file types should not be hard coded here
+		return filename.endsWith(".class") || filename.endsWith(".whiley");
 	}
 	
 	public ID path2ID(IPath path) {		
@@ -156,6 +394,19 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 	
 	public class IFolderEntry extends AbstractFolder {	
 		private IContainer dir;
+
+		/**
+		 * The items of this folder which are held in the indexes of the
+		 * enclosing root. These are removed from the indexes when this folder
+		 * is refreshed.
+		 */
+		private final ArrayList<Item> indexed = new ArrayList<Item>();
+
+		/**
+		 * Indicates whether or not the contents of this folder have been
+		 * listed since it was last refreshed.
+		 */
+		private boolean listed;
 		
 		public IFolderEntry(ID id, IContainer dir) {
 			super(id);
@@ -164,8 +415,13 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 		
 		protected Item[] contents() throws IOException {
 			try {
+				listed = true;
+				List<IResource> members = listings.remove(dir.getFullPath());
+				if (members == null) {
+					members = Arrays.asList(dir.members());
+				}
 				ArrayList<Item> contents = new ArrayList<Item>();			
-				for (IResource file : dir.members()) {			
+				for (IResource file : members) {			
 					if(file instanceof IFile) {
 						String suffix = file.getFileExtension();
 						if (suffix != null
@@ -176,11 +432,14 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 							IFileEntry entry = new IFileEntry(eid, (IFile) file);
 							contents.add(entry);
 							contentTypes.associate(entry);
+							index(entry);
 						}
 					} else if(file instanceof IFolder) {
 						IFolder folder = (IFolder) file;		
 						ID fid = id.append(folder.getName());
-						contents.add(new IFolderEntry(fid,folder));
+						IFolderEntry entry = new IFolderEntry(fid,folder);
+						contents.add(entry);
+						index(entry);
 					}
 				}
 				
@@ -190,6 +449,75 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 				throw new CoreIOException(e);
 			}
 		}
+
+		/**
+		 * Discard the contents of this folder, along with those of its
+		 * subfolders, and remove them from the indexes of the enclosing root.
+		 */
+		public void refresh() {
+			for (Item item : indexed) {
+				if (item instanceof IFileEntry) {
+					IFileEntry<?> entry = (IFileEntry<?>) item;
+					files.remove(entry.file);
+					String location = entry.location();
+					if (location != null) {
+						locations.remove(location);
+					}
+				} else {
+					IFolderEntry folder = (IFolderEntry) item;
+					folders.remove(folder.dir.getFullPath());
+					folder.refresh();
+				}
+			}
+			indexed.clear();
+			listed = false;
+			super.refresh();
+		}
+
+		/**
+		 * Insert an entry for a folder which has been added to this folder.
+		 * 
+		 * @param folder
+		 * @throws IOException
+		 */
+		public void insert(IFolder folder) throws IOException {
+			IFolderEntry entry = new IFolderEntry(id.append(folder.getName()),
+					folder);
+			super.insert(entry);
+			index(entry);
+		}
+
+		/**
+		 * Record an item of this folder in the indexes of the enclosing root.
+		 * 
+		 * @param item
+		 */
+		private void index(Item item) {
+			indexed.add(item);
+			if (item instanceof IFileEntry) {
+				IFileEntry<?> entry = (IFileEntry<?>) item;
+				files.put(entry.file, entry);
+				String location = entry.location();
+				if (location != null) {
+					locations.put(location, entry);
+				}
+			} else {
+				IFolderEntry folder = (IFolderEntry) item;
+				folders.put(folder.dir.getFullPath(), folder);
+			}
+		}
+
+		/**
+		 * Get the immediate subfolder of this folder with the given name, or
+		 * null if there is none.
+		 * 
+		 * @param name
+		 * @return
+		 * @throws IOException
+		 */
+		public IFolderEntry subfolder(String name) throws IOException {
+			return (IFolderEntry) super.getFolder(name);
+		}
 				
 		public <T> Entry<T> create(ID nid, Content.Type<T> ct) throws IOException {
 			String root = nid.get(0);
@@ -204,6 +532,7 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 					e = new IFileEntry<T>(id.append(root), file);
 					e.associate(ct, null);
 					super.insert(e);
+					index((IFileEntry<T>) e);
 				}
 				return e;
 			} else {
@@ -212,9 +541,9 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 				if (folder == null) {
 					// Folder doesn't already exist, so create it.
 					ID fid = id.append(root); 							
-					IPath fpath = dir.getLocation().append(root);
-					folder = new IFolderEntry(fid,dir.getFolder(fpath));
+					folder = new IFolderEntry(fid,dir.getFolder(new Path(root)));
 					super.insert(folder);
+					index(folder);
 				}
 				return folder.create(nid.subpath(1, nid.size()), ct);
 			}
@@ -223,10 +552,18 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 		public <T> Entry<T> create(ID nid, IFile file) throws IOException {
 			String root = nid.get(0);
 			if (nid.size() == 1) {
-				// attempting to create an entry in this folder
+				// attempting to create an entry in this folder. Listing this
+				// folder (if not already) may itself create an entry for the
+				// file.
+				super.getFolder(root);
+				IFileEntry<?> existing = files.get(file);
+				if (existing != null) {
+					return (Entry<T>) existing;
+				}
 				Entry<T> e = new IFileEntry<T>(id.append(root), file);
 				contentTypes.associate(e);
 				super.insert(e);				
+				index((IFileEntry<T>) e);
 				return e;
 			} else {
 				// attempting to create entry in subfolder.
@@ -234,9 +571,9 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 				if (folder == null) {
 					// Folder doesn't already exist, so create it.
 					ID fid = id.append(root); 		
-					IPath fpath = dir.getLocation().append(root);
-					folder = new IFolderEntry(fid,dir.getFolder(fpath));
+					folder = new IFolderEntry(fid,dir.getFolder(new Path(root)));
 					super.insert(folder);
+					index(folder);
 				}
 				return folder.create(nid.subpath(1, nid.size()), file);
 			}
@@ -253,6 +590,20 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 	 */
 	public static class IFileEntry<T> extends AbstractEntry<T> {		
 		private final IFile file;		
+
+		/**
+		 * The fingerprint of the underlying file, as it was when it had the
+		 * modification stamp given below. This is used to avoid rewriting the
+		 * file with identical contents.
+		 */
+		private long diskFingerprint;
+
+		/**
+		 * The modification stamp of the underlying file when its fingerprint
+		 * was last determined, or <code>IResource.NULL_STAMP</code> if it
+		 * has not been.
+		 */
+		private long diskStamp = IResource.NULL_STAMP;
 		
 		public IFileEntry(ID mid, IFile file) {
 			super(mid);			
@@ -264,13 +615,72 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 		}
 	
 		public String location() {
-			return file.getLocation().toFile().toString();			
+			IPath location = file.getLocation();
+			return location == null ? null : location.toFile().toString();
 		}
 		
 		public long lastModified() {
 			return file.getModificationStamp();
 		}
 		
+		/**
+		 * Compute a fingerprint of the contents of the underlying file. Unlike
+		 * the modification stamp, this is unaffected by a file being touched or
+		 * rewritten with identical contents. The fingerprint is a 64-bit FNV-1a
+		 * hash of the file's bytes.
+		 * 
+		 * @return
+		 * @throws IOException
+		 */
+		public long fingerprint() throws IOException {
+			InputStream in = inputStream();
+			try {
+				byte[] buffer = new byte[8192];
+				long hash = 0xcbf29ce484222325L;
+				int nread;
+				while ((nread = in.read(buffer)) != -1) {
+					hash = fingerprint(hash, buffer, nread);
+				}
+				return hash;
+			} finally {
+				in.close();
+			}
+		}
+
+		/**
+		 * Extend a 64-bit FNV-1a hash with the first <code>length</code>
+		 * bytes of a given array.
+		 * 
+		 * @param hash
+		 * @param bytes
+		 * @param length
+		 * @return
+		 */
+		private static long fingerprint(long hash, byte[] bytes, int length) {
+			for (int i = 0; i != length; ++i) {
+				hash ^= bytes[i] & 0xFF;
+				hash *= 0x100000001b3L;
+			}
+			return hash;
+		}
+
+		/**
+		 * Determine the fingerprint of the underlying file as it currently is
+		 * on disk. This is only computed again if the file has been modified
+		 * since it was last computed.
+		 * 
+		 * @return
+		 * @throws IOException
+		 */
+		private long diskFingerprint() throws IOException {
+			long stamp = file.getModificationStamp();
+			if (stamp == IResource.NULL_STAMP || stamp != diskStamp) {
+				diskFingerprint = fingerprint();
+				diskStamp = stamp;
+			}
+			return diskFingerprint;
+		}
+		
 		public String suffix() {
 			String filename = file.getName();
 			String suffix = "";
@@ -281,12 +691,28 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 			return suffix;
 		}
 				
-		public void write(T contents) throws IOException {
-			super.write(contents);			
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
+		/**
+		 * Write the contents of this entry (if modified) to the underlying
+		 * file. Note that contents are not written by <code>write()</code>,
+		 * only when the entry is flushed. This ensures the workspace is only
+		 * modified from the thread running the build, which holds the
+		 * necessary scheduling rules. If the file already holds identical
+		 * contents, then it is not written at all. This avoids needless
+		 * resource changes, which would otherwise trigger other builders (e.g.
+		 * for Java) to run.
+		 */
+		public void flush() throws IOException {
+			if (!modified || contents == null) {
+				return;
+			}
+			Buffer out = new Buffer();
 			contentType().write(out,contents);
-			byte[] bytes = out.toByteArray();
-			ByteArrayInputStream input = new ByteArrayInputStream(bytes);
+			long hash = out.fingerprint();
+			if (file.exists() && hash == diskFingerprint()) {
+				modified = false;
+				return;
+			}
+			InputStream input = out.inputStream();
 			try {
 				if (file.exists()) {
 					// File already exists, so update contents.
@@ -299,6 +725,9 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 					file.create(input, IResource.FORCE | IResource.DERIVED,
 							null);
 				}
+				modified = false;
+				diskFingerprint = hash;
+				diskStamp = file.getModificationStamp();
 			} catch (CoreException e) {
 				throw new CoreIOException(e);
 			}
@@ -344,35 +773,56 @@ public class ContainerRoot extends AbstractRoot<ContainerRoot.IFolderEntry> {
 		}
 	}
 	
+	/**
+	 * A byte buffer whose contents can be read back, or fingerprinted, without
+	 * first being copied.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private final static class Buffer extends ByteArrayOutputStream {
+		public Buffer() {
+			super(8192);
+		}
+
+		public InputStream inputStream() {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+
+		public long fingerprint() {
+			return IFileEntry.fingerprint(0xcbf29ce484222325L, buf, count);
+		}
+	}
+
 	/**
 	 * An adapator to simplify writing of data to <code>IFile</code> instances.
+	 * Data is buffered until the stream is closed, and then written to the
+	 * file in one go. Flushing the stream has no effect, since rewriting the
+	 * file each time would cost time quadratic in its size.
 	 * 
 	 * @author David J. Pearce
 	 * 
 	 */
 	private final static class IFileOutputStream extends OutputStream {
 		private final IFile file;
-		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private final Buffer out = new Buffer();
+		private boolean closed;
 
 		public IFileOutputStream(IFile file) {
 			this.file = file;
 		}
 
 		public void close() throws IOException {
-			flush();
-			out.close();
-		}
-
-		public void flush() throws IOException {
-			out.flush();
-			InputStream inputStream = new ByteArrayInputStream(
-					out.toByteArray());
+			if (closed) {
+				return;
+			}
+			closed = true;
 			// update the resource content
 			try {
 				if (file.exists()) {
-					file.setContents(inputStream, IResource.FORCE, null);
+					file.setContents(out.inputStream(), IResource.FORCE, null);
 				} else {
-					file.create(inputStream, IResource.FORCE, null);
+					file.create(out.inputStream(), IResource.FORCE, null);
 				}
 			} catch (CoreException e) {
 				throw new CoreIOException(e);
@@ -0,0 +1,231 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyclipse.core.builder;
+
+import java.util.*;
+
+import wyfs.lang.Path;
+import wyfs.util.Trie;
+
+/**
+ * <p>
+ * Records the dependencies between Whiley modules in a project. For each
+ * module we record the import filters it was compiled against (e.g.
+ * <code>whiley/lang/*</code>), along with the modules those filters resolved
+ * to at the time. From this, the reverse relation (i.e. which modules depend
+ * upon a given module) is maintained.
+ * </p>
+ *
+ * <p>
+ * The import filters are retained because the set of modules they resolve to
+ * can change. For example, when a new module is added to a package, those
+ * modules which import that package using a wildcard are affected, even though
+ * no edge to the new module has yet been recorded.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class DependencyGraph {
+
+	/**
+	 * Maps each module to the import filters it was last compiled against.
+	 */
+	private final HashMap<Path.ID, Set<Trie>> imports = new HashMap<Path.ID, Set<Trie>>();
+
+	/**
+	 * Maps each module to those modules it depends upon.
+	 */
+	private final HashMap<Path.ID, Set<Path.ID>> dependencies = new HashMap<Path.ID, Set<Path.ID>>();
+
+	/**
+	 * Maps each module to those modules which depend upon it. This is the
+	 * reverse of the dependencies relation.
+	 */
+	private final HashMap<Path.ID, Set<Path.ID>> dependents = new HashMap<Path.ID, Set<Path.ID>>();
+
+	/**
+	 * Record the dependencies of a given module, replacing any previously
+	 * recorded for it.
+	 *
+	 * @param module
+	 *            --- module whose dependencies are being recorded.
+	 * @param filters
+	 *            --- the import filters used by the module.
+	 * @param resolved
+	 *            --- the modules which those filters resolved to.
+	 */
+	public void record(Path.ID module, Collection<Trie> filters,
+			Collection<Path.ID> resolved) {
+		remove(module);
+		HashSet<Path.ID> deps = new HashSet<Path.ID>(resolved);
+		deps.remove(module);
+		imports.put(module, new HashSet<Trie>(filters));
+		dependencies.put(module, deps);
+		for (Path.ID dep : deps) {
+			Set<Path.ID> ds = dependents.get(dep);
+			if (ds == null) {
+				ds = new HashSet<Path.ID>();
+				dependents.put(dep, ds);
+			}
+			ds.add(module);
+		}
+	}
+
+	/**
+	 * Remove the recorded dependencies of a given module. Note that those
+	 * modules which depend upon it are unaffected, since they still refer to
+	 * it (although they will presumably no longer compile).
+	 *
+	 * @param module
+	 */
+	public void remove(Path.ID module) {
+		imports.remove(module);
+		Set<Path.ID> deps = dependencies.remove(module);
+		if (deps != null) {
+			for (Path.ID dep : deps) {
+				Set<Path.ID> ds = dependents.get(dep);
+				if (ds != null) {
+					ds.remove(module);
+					if (ds.isEmpty()) {
+						dependents.remove(dep);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget everything. This is used when the project is completely rebuilt.
+	 */
+	public void clear() {
+		imports.clear();
+		dependencies.clear();
+		dependents.clear();
+	}
+
+	/**
+	 * Return the set of all modules for which dependencies have been recorded.
+	 *
+	 * @return
+	 */
+	public Set<Path.ID> modules() {
+		return Collections.unmodifiableSet(dependencies.keySet());
+	}
+
+	/**
+	 * Return the import filters which a given module was last compiled
+	 * against.
+	 *
+	 * @param module
+	 * @return
+	 */
+	public Set<Trie> importsOf(Path.ID module) {
+		Set<Trie> filters = imports.get(module);
+		if (filters == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(filters);
+	}
+
+	/**
+	 * Return the modules which a given module directly depends upon.
+	 *
+	 * @param module
+	 * @return
+	 */
+	public Set<Path.ID> dependenciesOf(Path.ID module) {
+		Set<Path.ID> deps = dependencies.get(module);
+		if (deps == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(deps);
+	}
+
+	/**
+	 * Return the modules which directly depend upon a given module, according
+	 * to the recorded dependencies.
+	 *
+	 * @param module
+	 * @return
+	 */
+	public Set<Path.ID> dependentsOf(Path.ID module) {
+		Set<Path.ID> ds = dependents.get(module);
+		if (ds == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(ds);
+	}
+
+	/**
+	 * Return the modules which import a given module, irrespective of whether
+	 * or not it existed when they were last compiled. This is used to
+	 * determine the modules affected by a module being added.
+	 *
+	 * @param module
+	 * @return
+	 */
+	public Set<Path.ID> importersOf(Path.ID module) {
+		HashSet<Path.ID> importers = new HashSet<Path.ID>();
+		for (Map.Entry<Path.ID, Set<Trie>> e : imports.entrySet()) {
+			if (e.getKey().equals(module)) {
+				continue;
+			}
+			for (Trie filter : e.getValue()) {
+				if (filter.matches(module)) {
+					importers.add(e.getKey());
+					break;
+				}
+			}
+		}
+		return importers;
+	}
+
+	/**
+	 * Determine all modules which transitively depend upon any of the given
+	 * modules. The given modules are not themselves included (unless they
+	 * depend upon each other). Importers of the given modules are included as
+	 * well, since they may not have been resolved against them yet.
+	 *
+	 * @param modules
+	 * @return
+	 */
+	public Set<Path.ID> transitiveDependentsOf(Collection<Path.ID> modules) {
+		HashSet<Path.ID> visited = new HashSet<Path.ID>();
+		ArrayList<Path.ID> worklist = new ArrayList<Path.ID>();
+		for (Path.ID module : modules) {
+			worklist.addAll(dependentsOf(module));
+			worklist.addAll(importersOf(module));
+		}
+		while (!worklist.isEmpty()) {
+			Path.ID module = worklist.remove(worklist.size() - 1);
+			if (visited.add(module)) {
+				worklist.addAll(dependentsOf(module));
+			}
+		}
+		return visited;
+	}
+}
@@ -0,0 +1,278 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyclipse.core.builder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import wyclipse.core.Trace;
+import wycc.lang.SyntaxError;
+
+/**
+ * <p>
+ * Collects the markers which a set of resources should have, and then brings
+ * the markers of those resources up to date in a single workspace operation.
+ * Markers which are already present are left alone, and only those which are
+ * no longer wanted are deleted. Thus, a marker which is unchanged by a build
+ * (e.g. a warning on a module which was recompiled for some unrelated reason)
+ * does not disappear and reappear, and only one marker delta is fired.
+ * </p>
+ * 
+ * <p>
+ * Markers are managed by type. Only the markers of those types which have
+ * been reset for a resource (or added to it) are affected. Furthermore, a
+ * marker is only deleted if its type was reset for the resource. Markers added
+ * to a resource without resetting it (e.g. once the resource has already been
+ * updated part way through a build) are added to those it already has.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class MarkerUpdate {
+
+	/**
+	 * The markers wanted for each resource, by type.
+	 */
+	private final LinkedHashMap<IResource, Map<String, List<Problem>>> wanted = new LinkedHashMap<IResource, Map<String, List<Problem>>>();
+
+	/**
+	 * The types reset for each resource, whose other markers are deleted.
+	 */
+	private final HashMap<IResource, Set<String>> replaced = new HashMap<IResource, Set<String>>();
+
+	/**
+	 * Indicate that a resource should have no markers of a given type, other
+	 * than those subsequently added.
+	 * 
+	 * @param resource
+	 * @param type
+	 */
+	public void reset(IResource resource, String type) {
+		problems(resource, type).clear();
+		Set<String> types = replaced.get(resource);
+		if (types == null) {
+			types = new HashSet<String>();
+			replaced.put(resource, types);
+		}
+		types.add(type);
+	}
+
+	/**
+	 * Indicate that a resource should have a marker of a given type for a
+	 * given error.
+	 * 
+	 * @param resource
+	 * @param type
+	 * @param error
+	 */
+	public void add(IResource resource, String type, SyntaxError error) {
+		problems(resource, type).add(
+				new Problem(error.start(), error.end() + 1, error.msg()));
+	}
+
+	/**
+	 * Check whether or not there are any markers to update.
+	 * 
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return wanted.isEmpty();
+	}
+
+	/**
+	 * Bring the markers of every resource reset (or added to) since the last
+	 * update up to date, in a single workspace operation. Resources which no
+	 * longer exist are ignored.
+	 * 
+	 * @param workspace
+	 * @param monitor
+	 * @throws CoreException
+	 */
+	public void apply(IWorkspace workspace, IProgressMonitor monitor)
+			throws CoreException {
+		LinkedHashMap<IResource, Map<String, List<Problem>>> update = new LinkedHashMap<IResource, Map<String, List<Problem>>>(
+				wanted);
+		HashMap<IResource, Set<String>> reset = new HashMap<IResource, Set<String>>(
+				replaced);
+		wanted.clear();
+		replaced.clear();
+		apply(workspace, update, reset, monitor);
+	}
+
+	/**
+	 * Bring the markers of some resources up to date, as above. Those
+	 * resources not given are left to be updated later.
+	 * 
+	 * @param workspace
+	 * @param resources
+	 * @param monitor
+	 * @throws CoreException
+	 */
+	public void apply(IWorkspace workspace,
+			Collection<? extends IResource> resources, IProgressMonitor monitor)
+			throws CoreException {
+		LinkedHashMap<IResource, Map<String, List<Problem>>> update = new LinkedHashMap<IResource, Map<String, List<Problem>>>();
+		HashMap<IResource, Set<String>> reset = new HashMap<IResource, Set<String>>();
+		for (IResource resource : resources) {
+			Map<String, List<Problem>> types = wanted.remove(resource);
+			if (types != null) {
+				update.put(resource, types);
+			}
+			Set<String> rs = replaced.remove(resource);
+			if (rs != null) {
+				reset.put(resource, rs);
+			}
+		}
+		apply(workspace, update, reset, monitor);
+	}
+
+	private void apply(final IWorkspace workspace,
+			final Map<IResource, Map<String, List<Problem>>> update,
+			final Map<IResource, Set<String>> reset, IProgressMonitor monitor)
+			throws CoreException {
+		if (update.isEmpty()) {
+			return;
+		}
+		// Markers do not require a scheduling rule, hence none is used. This
+		// means an update from outside a build does not block on one.
+		workspace.run(new IWorkspaceRunnable() {
+			public void run(IProgressMonitor monitor) throws CoreException {
+				ArrayList<IMarker> stale = new ArrayList<IMarker>();
+				int created = 0;
+				for (Map.Entry<IResource, Map<String, List<Problem>>> e : update
+						.entrySet()) {
+					IResource resource = e.getKey();
+					if (!resource.exists()) {
+						continue;
+					}
+					Set<String> types = reset.get(resource);
+					for (Map.Entry<String, List<Problem>> t : e.getValue()
+							.entrySet()) {
+						boolean replace = types != null
+								&& types.contains(t.getKey());
+						ArrayList<Problem> missing = new ArrayList<Problem>(
+								t.getValue());
+						for (IMarker m : resource.findMarkers(t.getKey(),
+								false, IResource.DEPTH_ZERO)) {
+							if (!missing.remove(Problem.of(m)) && replace) {
+								stale.add(m);
+							}
+						}
+						for (Problem p : missing) {
+							p.create(resource, t.getKey());
+							created++;
+						}
+					}
+				}
+				if (!stale.isEmpty()) {
+					workspace.deleteMarkers(stale.toArray(new IMarker[stale
+							.size()]));
+				}
+				if (Trace.BUILDER) {
+					Trace.trace("*** MARKERS: " + created + " created, "
+							+ stale.size() + " deleted");
+				}
+			}
+		}, null, IWorkspace.AVOID_UPDATE, monitor);
+	}
+
+	private List<Problem> problems(IResource resource, String type) {
+		Map<String, List<Problem>> types = wanted.get(resource);
+		if (types == null) {
+			types = new HashMap<String, List<Problem>>();
+			wanted.put(resource, types);
+		}
+		List<Problem> problems = types.get(type);
+		if (problems == null) {
+			problems = new ArrayList<Problem>();
+			types.put(type, problems);
+		}
+		return problems;
+	}
+
+	/**
+	 * The attributes of a marker which distinguish it from others of the same
+	 * type on the same resource.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class Problem {
+		private final int start;
+		private final int end;
+		private final String message;
+
+		public Problem(int start, int end, String message) {
+			this.start = start;
+			this.end = end;
+			this.message = message == null ? "" : message;
+		}
+
+		public static Problem of(IMarker m) {
+			return new Problem(m.getAttribute(IMarker.CHAR_START, -1),
+					m.getAttribute(IMarker.CHAR_END, -1), m.getAttribute(
+							IMarker.MESSAGE, ""));
+		}
+
+		public void create(IResource resource, String type)
+				throws CoreException {
+			IMarker m = resource.createMarker(type);
+			m.setAttributes(new String[] { IMarker.CHAR_START,
+					IMarker.CHAR_END, IMarker.MESSAGE, IMarker.LOCATION,
+					IMarker.PRIORITY, IMarker.SEVERITY }, new Object[] { start,
+					end, message, "Whiley File", IMarker.PRIORITY_HIGH,
+					IMarker.SEVERITY_ERROR });
+		}
+
+		public boolean equals(Object o) {
+			if (o instanceof Problem) {
+				Problem p = (Problem) o;
+				return start == p.start && end == p.end
+						&& message.equals(p.message);
+			}
+			return false;
+		}
+
+		public int hashCode() {
+			return start ^ (end << 16) ^ message.hashCode();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyclipse.core.builder;
+
+import java.util.HashMap;
+
+import org.eclipse.core.resources.IFile;
+
+/**
+ * Records which source files are open in an editor. Modules whose source
+ * files are open (along with those they depend upon) are built before any
+ * others, so that the errors which the user is looking at appear as soon as
+ * possible. Since a file may be open in several editors at once, each opening
+ * must be matched by a closing.
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public final class OpenFiles {
+
+	/**
+	 * The number of editors in which each file is open.
+	 */
+	private static final HashMap<IFile, Integer> files = new HashMap<IFile, Integer>();
+
+	private OpenFiles() {
+	}
+
+	/**
+	 * Record that a file has been opened in an editor.
+	 * 
+	 * @param file
+	 */
+	public static synchronized void open(IFile file) {
+		Integer count = files.get(file);
+		files.put(file, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Record that an editor in which a file was open has been closed.
+	 * 
+	 * @param file
+	 */
+	public static synchronized void close(IFile file) {
+		Integer count = files.get(file);
+		if (count == null || count == 1) {
+			files.remove(file);
+		} else {
+			files.put(file, count - 1);
+		}
+	}
+
+	/**
+	 * Check whether a file is open in any editor.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static synchronized boolean isOpen(IFile file) {
+		return files.containsKey(file);
+	}
+
+	/**
+	 * Check whether any file is open in an editor.
+	 * 
+	 * @return
+	 */
+	public static synchronized boolean isEmpty() {
+		return files.isEmpty();
+	}
+}
@@ -0,0 +1,192 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyclipse.core.builder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import wycc.util.Pair;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+
+/**
+ * <p>
+ * Records a fingerprint of each file generated by a build rule, as it was at
+ * the end of the last successful build. This allows a rule's outputs to be
+ * compared against their previous contents, so that rules further down the
+ * chain (e.g. the verifier and the Java backend) can be skipped when an output
+ * is unchanged. For example, a comment or whitespace edit typically produces a
+ * byte-identical WyIL file.
+ * </p>
+ * 
+ * <p>
+ * Fingerprints computed during a build are held as pending until the build is
+ * known to have succeeded. If the build fails, then the outputs concerned are
+ * forgotten altogether, since the files generated from them may not be up to
+ * date. Instances are thread safe, since they are shared by builds of
+ * independent modules which run concurrently.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class OutputFingerprints {
+
+	/**
+	 * The fingerprint of each output as it was at the end of the last
+	 * successful build.
+	 */
+	private final Map<Pair<Path.ID, Content.Type<?>>, Long> committed = new ConcurrentHashMap<Pair<Path.ID, Content.Type<?>>, Long>();
+
+	/**
+	 * The fingerprint of each output generated during the current build.
+	 */
+	private final Map<Pair<Path.ID, Content.Type<?>>, Long> pending = new ConcurrentHashMap<Pair<Path.ID, Content.Type<?>>, Long>();
+
+	/**
+	 * The outputs generated during the current build which were found to be
+	 * unchanged.
+	 */
+	private final Set<Path.ID> unchanged = Collections
+			.newSetFromMap(new ConcurrentHashMap<Path.ID, Boolean>());
+
+	/**
+	 * Check whether a newly generated output differs from when it was last
+	 * successfully built. An output which has not been built before is always
+	 * considered changed.
+	 * 
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean hasChanged(Path.Entry<?> entry) throws IOException {
+		Pair<Path.ID, Content.Type<?>> key = new Pair<Path.ID, Content.Type<?>>(
+				entry.id(), entry.contentType());
+		long fingerprint = fingerprint(entry);
+		Long previous = committed.get(key);
+		pending.put(key, fingerprint);
+		if (previous != null && previous == fingerprint) {
+			unchanged.add(entry.id());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Determine the outputs generated during the current build which were
+	 * found to be unchanged.
+	 * 
+	 * @return
+	 */
+	public Set<Path.ID> unchanged() {
+		return Collections.unmodifiableSet(unchanged);
+	}
+
+	/**
+	 * The current build has succeeded, hence the outputs it generated become
+	 * the baseline for the next build.
+	 */
+	public void commit() {
+		committed.putAll(pending);
+		pending.clear();
+		unchanged.clear();
+	}
+
+	/**
+	 * The current build has failed, hence the outputs it generated are
+	 * forgotten. This ensures they are not considered unchanged by the next
+	 * build.
+	 */
+	public void discard() {
+		for (Pair<Path.ID, Content.Type<?>> key : pending.keySet()) {
+			committed.remove(key);
+		}
+		pending.clear();
+		unchanged.clear();
+	}
+
+	/**
+	 * Adopt the fingerprints of another instance as the baseline for the next
+	 * build. This is used when a build rule is recreated with identical
+	 * settings (e.g. because the whileypath changed in some unrelated way).
+	 * 
+	 * @param other
+	 */
+	public void inherit(OutputFingerprints other) {
+		committed.putAll(other.committed);
+	}
+
+	/**
+	 * Forget everything. This is used when the project is completely rebuilt.
+	 */
+	public void clear() {
+		committed.clear();
+		pending.clear();
+		unchanged.clear();
+	}
+
+	/**
+	 * Compute a fingerprint of the contents of a given entry, as they would be
+	 * written to disk. This is a 64-bit FNV-1a hash, as for source files.
+	 * 
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	private static <T> long fingerprint(Path.Entry<T> entry) throws IOException {
+		FingerprintOutputStream out = new FingerprintOutputStream();
+		entry.contentType().write(out, entry.read());
+		return out.hash;
+	}
+
+	/**
+	 * An output stream which hashes whatever is written to it, rather than
+	 * storing it.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class FingerprintOutputStream extends OutputStream {
+		private long hash = 0xcbf29ce484222325L;
+
+		public void write(int b) {
+			hash ^= b & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+
+		public void write(byte[] bytes, int off, int len) {
+			for (int i = off; i != off + len; ++i) {
+				hash ^= bytes[i] & 0xFF;
+				hash *= 0x100000001b3L;
+			}
+		}
+	}
+}
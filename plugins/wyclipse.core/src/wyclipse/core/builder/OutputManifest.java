@@ -0,0 +1,168 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyclipse.core.builder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.runtime.IPath;
+
+import wyclipse.core.builder.ContainerRoot.IFileEntry;
+import wyfs.lang.Path;
+import wyfs.util.Trie;
+
+/**
+ * <p>
+ * Records the files generated for each module of a project (e.g. its WyIL,
+ * WyAL and class files). This allows a project to be cleaned by deleting
+ * exactly those files which were generated, and the outputs of a module to be
+ * deleted when its source file is removed. Files are identified by their full
+ * path within the workspace, and only those written to the workspace (i.e. not
+ * held in virtual roots) are recorded.
+ * </p>
+ * 
+ * <p>
+ * Files are recorded against the module they were generated for which, for
+ * the builders used here, has the same identifier as the generated file
+ * itself. Instances are thread safe, since modules may be built concurrently.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class OutputManifest {
+
+	/**
+	 * Maps each module to the full paths of the files generated for it.
+	 */
+	private final ConcurrentHashMap<Path.ID, Set<IPath>> outputs = new ConcurrentHashMap<Path.ID, Set<IPath>>();
+
+	/**
+	 * Record that a given entry has been generated. Entries which are not
+	 * backed by a file in the workspace are ignored.
+	 * 
+	 * @param entry
+	 */
+	public void record(Path.Entry<?> entry) {
+		if (entry instanceof IFileEntry) {
+			IFileEntry<?> ife = (IFileEntry<?>) entry;
+			outputsOf(entry.id()).add(ife.getFile().getFullPath());
+		}
+	}
+
+	/**
+	 * Forget the files generated for a given module, and return them.
+	 * 
+	 * @param module
+	 * @return
+	 */
+	public Set<IPath> remove(Path.ID module) {
+		Set<IPath> files = outputs.remove(module);
+		if (files == null) {
+			return Collections.emptySet();
+		}
+		return files;
+	}
+
+	/**
+	 * Return the files generated for all modules.
+	 * 
+	 * @return
+	 */
+	public Set<IPath> all() {
+		HashSet<IPath> files = new HashSet<IPath>();
+		for (Set<IPath> fs : outputs.values()) {
+			files.addAll(fs);
+		}
+		return files;
+	}
+
+	/**
+	 * Forget everything. This is used once the generated files have been
+	 * deleted.
+	 */
+	public void clear() {
+		outputs.clear();
+	}
+
+	/**
+	 * Write this manifest to a given stream.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		// Take a copy, so the number of modules written is accurate.
+		HashSet<Path.ID> modules = new HashSet<Path.ID>(outputs.keySet());
+		out.writeInt(modules.size());
+		for (Path.ID module : modules) {
+			Collection<IPath> files = outputsOf(module);
+			out.writeUTF(module.toString());
+			out.writeInt(files.size());
+			for (IPath file : files) {
+				out.writeUTF(file.toPortableString());
+			}
+		}
+	}
+
+	/**
+	 * Read a manifest from a given stream, adding it to this one.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public void read(DataInputStream in) throws IOException {
+		int nmodules = in.readInt();
+		for (int i = 0; i != nmodules; ++i) {
+			Set<IPath> files = outputsOf(Trie.fromString(in.readUTF()));
+			int nfiles = in.readInt();
+			for (int j = 0; j != nfiles; ++j) {
+				files.add(org.eclipse.core.runtime.Path.fromPortableString(in
+						.readUTF()));
+			}
+		}
+	}
+
+	private Set<IPath> outputsOf(Path.ID module) {
+		Set<IPath> files = outputs.get(module);
+		if (files == null) {
+			files = Collections
+					.newSetFromMap(new ConcurrentHashMap<IPath, Boolean>());
+			Set<IPath> existing = outputs.putIfAbsent(module, files);
+			if (existing != null) {
+				files = existing;
+			}
+		}
+		return files;
+	}
+}
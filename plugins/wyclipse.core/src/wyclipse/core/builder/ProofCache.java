@@ -0,0 +1,190 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyclipse.core.builder;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Caches the outcome of proving individual verification conditions, so that
+ * they are not proved again when the module containing them is rebuilt. For
+ * example, when one function in a module is edited, only the conditions
+ * arising from that function need be proved again.
+ * </p>
+ * 
+ * <p>
+ * Conditions are identified by a key, which is a SHA-256 digest of the
+ * normalised WyAL assertion, the declarations it is proved against and the
+ * solver settings. A cryptographic digest is used since two conditions with
+ * the same key are assumed to be the same and, hence, a collision could
+ * report an unproved condition as proved.
+ * </p>
+ * 
+ * <p>
+ * The cache holds a bounded number of outcomes, and evicts the least recently
+ * used when full. Instances are thread safe, since modules may be verified
+ * concurrently.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class ProofCache {
+
+	/**
+	 * The outcome of a condition which was successfully proved.
+	 */
+	public static final Outcome PROVED = new Outcome(null);
+
+	private final Cache cache;
+
+	public ProofCache(int capacity) {
+		this.cache = new Cache(capacity);
+	}
+
+	/**
+	 * Change the maximum number of outcomes held in this cache. If the cache
+	 * currently holds more than this, the least recently used are evicted when
+	 * the next outcome is added.
+	 * 
+	 * @param capacity
+	 */
+	public synchronized void setCapacity(int capacity) {
+		cache.capacity = capacity;
+	}
+
+	/**
+	 * Get the outcome of proving a given condition, or null if this is not
+	 * known.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public synchronized Outcome get(String key) {
+		return cache.get(key);
+	}
+
+	/**
+	 * Record the outcome of proving a given condition.
+	 * 
+	 * @param key
+	 * @param outcome
+	 */
+	public synchronized void put(String key, Outcome outcome) {
+		cache.put(key, outcome);
+	}
+
+	/**
+	 * Forget everything.
+	 */
+	public synchronized void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Combine a hash with a string, giving the SHA-256 digest of both (in
+	 * hexadecimal). This is used to compute the keys of conditions.
+	 * 
+	 * @param hash
+	 *            --- the hash being extended, or null to start a new hash.
+	 * @param text
+	 * @return
+	 */
+	public static String hash(String hash, String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			if (hash != null) {
+				// Hashes have a fixed length, hence no separator is needed.
+				digest.update((byte) 1);
+				digest.update(hash.getBytes("UTF-8"));
+			} else {
+				digest.update((byte) 0);
+			}
+			byte[] bytes = digest.digest(text.getBytes("UTF-8"));
+			StringBuilder r = new StringBuilder();
+			for (byte b : bytes) {
+				r.append(Character.forDigit((b >> 4) & 0xF, 16));
+				r.append(Character.forDigit(b & 0xF, 16));
+			}
+			return r.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// deadcode, since every Java platform supports SHA-256
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			// deadcode, since every Java platform supports UTF-8
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The outcome of attempting to prove a condition. This is either success,
+	 * or failure with the message reported by the verifier.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	public static final class Outcome {
+		private final String message;
+
+		public Outcome(String message) {
+			this.message = message;
+		}
+
+		public boolean proved() {
+			return message == null;
+		}
+
+		public String message() {
+			return message;
+		}
+	}
+
+	/**
+	 * A map which retains only the most recently used entries.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class Cache extends LinkedHashMap<String, Outcome> {
+		private static final long serialVersionUID = 1L;
+
+		private int capacity;
+
+		public Cache(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<String, Outcome> eldest) {
+			return size() > capacity;
+		}
+	}
+}
@@ -0,0 +1,317 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyclipse.core.builder;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A store of proof outcomes held on disk, which persists beyond a single
+ * session. This complements the <code>ProofCache</code> held in memory. Since
+ * outcomes are identified by the key of the verification condition (i.e. a
+ * SHA-256 digest of its normalised WyAL, the declarations it depends upon and
+ * the solver), the store is content addressed. Hence, it can be shared between
+ * projects, workspaces and branches, and an outcome is reused wherever the
+ * same condition arises.
+ * </p>
+ * 
+ * <p>
+ * Each outcome is held in its own file, named after its key. Outcomes are
+ * written to a temporary file and then renamed, so that several Eclipse
+ * instances can share the same directory without seeing partially written
+ * outcomes. Since outcomes are tiny, each occupies at least one block on disk
+ * and, hence, the store is charged one block per outcome. When the store
+ * exceeds its capacity, the least recently used outcomes are evicted until it
+ * is comfortably within capacity again. The order in which outcomes were used
+ * is held in an index, which is built by listing the store once when first
+ * needed; thereafter, it is maintained as outcomes are read and written.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class ProofStore {
+
+	/**
+	 * Identifies the format of stored outcomes. This should be incremented
+	 * whenever the format changes.
+	 */
+	private static final int VERSION = 2;
+
+	/**
+	 * The number of bytes charged for each outcome held in the store. This
+	 * reflects the smallest amount of disk space a file typically occupies.
+	 */
+	private static final long BLOCK_SIZE = 4096;
+
+	/**
+	 * The stores currently open, indexed by directory. This ensures that
+	 * projects sharing a directory also share its index.
+	 */
+	private static final HashMap<File, ProofStore> stores = new HashMap<File, ProofStore>();
+
+	private final File dir;
+	private long capacity;
+
+	/**
+	 * The keys of outcomes held in the store, ordered from least to most
+	 * recently used, or null if this has not yet been determined. Outcomes
+	 * written or evicted by other instances sharing the directory are
+	 * accounted for when they are next read or written by this instance.
+	 */
+	private LinkedHashMap<String, Boolean> index;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+
+	private ProofStore(File dir, long capacity) {
+		this.dir = dir;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Open the store held in a given directory, which is created if it does
+	 * not exist.
+	 * 
+	 * @param dir
+	 * @param capacity
+	 *            --- the maximum number of bytes held in the store, where each
+	 *            outcome is charged one block.
+	 * @return
+	 */
+	public static ProofStore open(File dir, long capacity) {
+		dir = dir.getAbsoluteFile();
+		synchronized (stores) {
+			ProofStore store = stores.get(dir);
+			if (store == null) {
+				store = new ProofStore(dir, capacity);
+				stores.put(dir, store);
+			} else {
+				store.setCapacity(capacity);
+			}
+			return store;
+		}
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	public synchronized void setCapacity(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Get the number of lookups which found an outcome in this store.
+	 * 
+	 * @return
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of lookups which did not find an outcome in this store.
+	 * 
+	 * @return
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * Get the number of outcomes written to this store.
+	 * 
+	 * @return
+	 */
+	public long writes() {
+		return writes.get();
+	}
+
+	/**
+	 * Get the outcome of proving a given condition, or null if this is not
+	 * held in the store. An outcome which cannot be read (e.g. because it was
+	 * written in a different format) is treated as missing.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public ProofCache.Outcome get(String key) {
+		File file = fileOf(key);
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (in.readInt() != VERSION) {
+					misses.incrementAndGet();
+					return null;
+				}
+				ProofCache.Outcome outcome = in.readBoolean() ? ProofCache.PROVED
+						: new ProofCache.Outcome(in.readUTF());
+				// Mark the outcome as recently used
+				file.setLastModified(System.currentTimeMillis());
+				used(key);
+				hits.incrementAndGet();
+				return outcome;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Record the outcome of proving a given condition. Failure to write the
+	 * outcome is ignored, since the only consequence is that the condition
+	 * will be proved again.
+	 * 
+	 * @param key
+	 * @param outcome
+	 */
+	public void put(String key, ProofCache.Outcome outcome) {
+		File file = fileOf(key);
+		File tmp = null;
+		try {
+			File parent = file.getParentFile();
+			parent.mkdirs();
+			tmp = File.createTempFile(file.getName(), ".tmp", parent);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(VERSION);
+				out.writeBoolean(outcome.proved());
+				if (!outcome.proved()) {
+					out.writeUTF(outcome.message());
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				// On some platforms, renaming fails if the target exists. In
+				// which case, another instance has written the same outcome.
+				tmp.delete();
+				return;
+			}
+			tmp = null;
+			writes.incrementAndGet();
+			used(key);
+		} catch (IOException e) {
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Account for an outcome being read or written, and evict outcomes if the
+	 * store is now over capacity.
+	 * 
+	 * @param key
+	 */
+	private synchronized void used(String key) {
+		if (index == null) {
+			index = load();
+		}
+		index.put(key, Boolean.TRUE);
+		if (index.size() * BLOCK_SIZE > capacity) {
+			evict();
+		}
+	}
+
+	/**
+	 * Evict the least recently used outcomes until the store is within three
+	 * quarters of its capacity.
+	 */
+	private void evict() {
+		long target = ((capacity / 4) * 3) / BLOCK_SIZE;
+		Iterator<String> keys = index.keySet().iterator();
+		while (keys.hasNext() && index.size() > target) {
+			String key = keys.next();
+			// If the file cannot be deleted then another instance has already
+			// evicted it, or will do so.
+			fileOf(key).delete();
+			keys.remove();
+		}
+	}
+
+	/**
+	 * Build the index of outcomes held in the store, by listing every bucket
+	 * and ordering their outcomes by when they were last used.
+	 * 
+	 * @return
+	 */
+	private LinkedHashMap<String, Boolean> load() {
+		ArrayList<File> files = new ArrayList<File>();
+		final HashMap<File, Long> used = new HashMap<File, Long>();
+		File[] buckets = dir.listFiles();
+		if (buckets != null) {
+			for (File bucket : buckets) {
+				File[] outcomes = bucket.listFiles();
+				if (outcomes != null) {
+					for (File outcome : outcomes) {
+						if (!outcome.getName().endsWith(".tmp")) {
+							files.add(outcome);
+							used.put(outcome, outcome.lastModified());
+						}
+					}
+				}
+			}
+		}
+		Collections.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				long u1 = used.get(f1);
+				long u2 = used.get(f2);
+				return u1 < u2 ? -1 : (u1 == u2 ? 0 : 1);
+			}
+		});
+		LinkedHashMap<String, Boolean> index = new LinkedHashMap<String, Boolean>(
+				16, 0.75f, true);
+		for (File file : files) {
+			index.put(file.getName(), Boolean.TRUE);
+		}
+		return index;
+	}
+
+	/**
+	 * Determine the file holding the outcome for a given key. Outcomes are
+	 * spread over subdirectories by the last byte of their key, to keep
+	 * directories a manageable size.
+	 * 
+	 * @param key
+	 *            --- a key in hexadecimal, as given by
+	 *            <code>ProofCache.hash()</code>.
+	 * @return
+	 */
+	private File fileOf(String key) {
+		return new File(new File(dir, key.substring(key.length() - 2)), key);
+	}
+}
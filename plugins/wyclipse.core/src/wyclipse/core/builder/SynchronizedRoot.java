@@ -0,0 +1,106 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyclipse.core.builder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+
+/**
+ * A <code>Path.Root</code> which serialises all accesses to an underlying
+ * root. This is necessary when several threads share the same roots
+ * concurrently (e.g. when modules are verified in parallel), since the folder hierarchy of a root is populated lazily and
+ * is not itself thread safe. Access is synchronised on the underlying root, so
+ * that several instances wrapping the same root exclude each other.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SynchronizedRoot implements Path.Root {
+	private final Path.Root root;
+
+	public SynchronizedRoot(Path.Root root) {
+		this.root = root;
+	}
+
+	public boolean contains(Path.Entry<?> entry) throws IOException {
+		synchronized (root) {
+			return root.contains(entry);
+		}
+	}
+
+	public boolean exists(Path.ID id, Content.Type<?> ct) throws IOException {
+		synchronized (root) {
+			return root.exists(id, ct);
+		}
+	}
+
+	public <T> Path.Entry<T> get(Path.ID id, Content.Type<T> ct)
+			throws IOException {
+		synchronized (root) {
+			return root.get(id, ct);
+		}
+	}
+
+	public <T> List<Path.Entry<T>> get(Content.Filter<T> filter)
+			throws IOException {
+		synchronized (root) {
+			return root.get(filter);
+		}
+	}
+
+	public <T> Set<Path.ID> match(Content.Filter<T> filter) throws IOException {
+		synchronized (root) {
+			return root.match(filter);
+		}
+	}
+
+	public <T> Path.Entry<T> create(Path.ID id, Content.Type<T> ct)
+			throws IOException {
+		synchronized (root) {
+			return root.create(id, ct);
+		}
+	}
+
+	public void flush() throws IOException {
+		synchronized (root) {
+			root.flush();
+		}
+	}
+
+	public void refresh() throws IOException {
+		synchronized (root) {
+			root.refresh();
+		}
+	}
+
+	public String toString() {
+		return root.toString();
+	}
+}
@@ -0,0 +1,175 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyclipse.core.builder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import wybs.lang.Builder;
+import wycc.lang.CompilationUnit;
+import wycc.lang.Pipeline;
+import wycc.lang.Transform;
+import wycc.util.Logger;
+import wycs.core.WycsFile;
+import wyfs.lang.Path;
+import wyil.lang.WyilFile;
+
+/**
+ * <p>
+ * A pipeline whose transforms record the time they spend on each module in
+ * the statistics of a build. Each transform is recorded under the name of the
+ * stage it belongs to, followed by the name of the transform (e.g.
+ * <code>"wyc:ConstraintInline"</code>).
+ * </p>
+ * 
+ * <p>
+ * Since the compiler names transforms by their class when logging them, the
+ * logger of a builder using this pipeline should be obtained from
+ * <code>logger()</code>. This reports each transform under its own name,
+ * rather than that of the wrapper which times it.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class TimedPipeline<T extends CompilationUnit> extends Pipeline<T> {
+	/**
+	 * The name under which the compiler logs a timed transform.
+	 */
+	private static final String TIMED_NAME = name(TimedTransform.class
+			.getSimpleName());
+
+	/**
+	 * The transform most recently applied on each thread. The compiler logs a
+	 * transform immediately after applying it (on the same thread), hence
+	 * this identifies the transform being logged.
+	 */
+	private static final ThreadLocal<Transform<?>> applied = new ThreadLocal<Transform<?>>();
+
+	private final String stage;
+	private final BuildStatistics statistics;
+
+	public TimedPipeline(List<Pipeline.Template<T>> templates, String stage,
+			BuildStatistics statistics) {
+		super(templates);
+		this.stage = stage;
+		this.statistics = statistics;
+	}
+
+	public List<Transform<T>> instantiate(Builder builder) {
+		ArrayList<Transform<T>> transforms = new ArrayList<Transform<T>>();
+		for (Transform<T> transform : super.instantiate(builder)) {
+			transforms.add(new TimedTransform<T>(stage + ":"
+					+ transform.getClass().getSimpleName(), transform,
+					statistics));
+		}
+		return transforms;
+	}
+
+	/**
+	 * Construct a logger which reports each transform of this pipeline under
+	 * its own name, rather than that of the wrapper timing it.
+	 * 
+	 * @param logger
+	 *            --- the logger to which messages are passed on.
+	 * @return
+	 */
+	public Logger logger(final Logger logger) {
+		return new Logger() {
+			public void logTimedMessage(String msg, long time, long memory) {
+				Transform<?> transform = applied.get();
+				int index = msg.indexOf(TIMED_NAME);
+				if (transform != null && index >= 0) {
+					msg = msg.substring(0, index)
+							+ name(transform.getClass().getSimpleName())
+							+ msg.substring(index + TIMED_NAME.length());
+				}
+				logger.logTimedMessage(msg, time, memory);
+			}
+		};
+	}
+
+	/**
+	 * Convert the name of a transform class into that used by the compiler
+	 * when logging it (e.g. "ConstraintInline" becomes "constraint inline").
+	 * 
+	 * @param name
+	 * @return
+	 */
+	private static String name(String name) {
+		StringBuilder r = new StringBuilder();
+		for (int i = 0; i != name.length(); ++i) {
+			char c = name.charAt(i);
+			if (i != 0 && Character.isUpperCase(c)) {
+				r.append(' ');
+			}
+			r.append(Character.toLowerCase(c));
+		}
+		return r.toString();
+	}
+
+	/**
+	 * Determine the module of a compilation unit, or null if it is not known.
+	 * 
+	 * @param unit
+	 * @return
+	 */
+	private static Path.ID id(CompilationUnit unit) {
+		if (unit instanceof WyilFile) {
+			return ((WyilFile) unit).id();
+		} else if (unit instanceof WycsFile) {
+			return ((WycsFile) unit).id();
+		} else {
+			return null;
+		}
+	}
+
+	private static final class TimedTransform<T extends CompilationUnit>
+			implements Transform<T> {
+		private final String name;
+		private final Transform<T> transform;
+		private final BuildStatistics statistics;
+
+		public TimedTransform(String name, Transform<T> transform,
+				BuildStatistics statistics) {
+			this.name = name;
+			this.transform = transform;
+			this.statistics = statistics;
+		}
+
+		public void apply(T unit) throws IOException {
+			applied.set(transform);
+			long start = System.nanoTime();
+			try {
+				transform.apply(unit);
+			} finally {
+				statistics.record(name, id(unit), System.nanoTime() - start);
+			}
+		}
+	}
+}
@@ -0,0 +1,825 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyclipse.core.builder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import wyclipse.core.Activator;
+import wyclipse.core.Trace;
+import wybs.util.StdProject;
+import wycc.lang.Attribute;
+import wycc.lang.Pipeline;
+import wycc.lang.SyntaxError;
+import wycc.util.Pair;
+import wycs.builders.Wyal2WycsBuilder;
+import wycs.io.WyalFileStructuredPrinter;
+import wycs.syntax.Expr;
+import wycs.syntax.TypePattern;
+import wycs.syntax.WyalFile;
+import wycs.transforms.VerificationCheck;
+import wycs.util.WycsBuildTask;
+import wyfs.lang.Path;
+import wyfs.util.VirtualRoot;
+
+/**
+ * <p>
+ * Responsible for verifying the WyAL files generated by a Whiley project
+ * builder. Verification is by far the most expensive stage of the build and,
+ * hence, is performed by a separate low-priority job, rather than as part of
+ * the build itself. This means that the workspace is not held whilst proofs
+ * are attempted, and that errors from the front end are reported without
+ * waiting for them.
+ * </p>
+ * 
+ * <p>
+ * Each module is verified independently, and its markers are published as
+ * soon as it is done. When a module changes again, its verification is
+ * superseded at the start of the build, and the new version is verified once
+ * it is submitted. Other modules are unaffected, such that their verification
+ * continues whilst the build is in progress. Supersession (and cancellation
+ * of the job itself) is checked between batches of verification conditions,
+ * and the outcomes of those already proved are kept.
+ * </p>
+ * 
+ * <p>
+ * The outcome of each verification condition is cached in memory and held in
+ * a store on disk, and only those conditions whose outcome is not known are
+ * given to the verifier.
+ * </p>
+ * 
+ * <p>
+ * The job owns the roots it verifies against. The WyAL files of submitted
+ * modules are held in a private virtual root, and libraries are opened
+ * afresh. Therefore, it does not share any roots with the build.
+ * </p>
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class VerificationJob extends Job {
+
+	/**
+	 * The delay (in milliseconds) before verification begins after being
+	 * scheduled. This allows a burst of builds to supersede each other before
+	 * any verification is attempted.
+	 */
+	private static final long DELAY = 200;
+
+	/**
+	 * The most verification conditions of a module given to the verifier at
+	 * once. Verifying conditions together avoids compiling the module once
+	 * per condition, whilst verifying them in batches allows the job to be
+	 * cancelled (or the module superseded) part way through a large module.
+	 */
+	private static final int BATCH_SIZE = 32;
+
+	/**
+	 * Those modules which have been submitted but not yet verified, in order
+	 * of submission.
+	 */
+	private final LinkedHashMap<Path.ID, Task> pending = new LinkedHashMap<Path.ID, Task>();
+
+	/**
+	 * The root holding the WyAL files (and the WyCS files generated from them)
+	 * of all modules submitted to this job.
+	 */
+	private final Path.Root root;
+
+	/**
+	 * The libraries which WyAL files are verified against.
+	 */
+	private final List<Path.Root> libraries;
+
+	/**
+	 * The number of modules which may be verified concurrently.
+	 */
+	private final int nthreads;
+
+	/**
+	 * The outcomes of verification conditions already proved (or not).
+	 */
+	private final ProofCache cache;
+
+	/**
+	 * The outcomes of verification conditions held on disk.
+	 */
+	private final ProofStore store;
+
+	/**
+	 * The statistics of verifying the project, in which the time spent
+	 * compiling each module to WyCS is recorded.
+	 */
+	private final BuildStatistics statistics;
+
+	/**
+	 * Identifies the version and settings of the solver, which affect whether
+	 * or not a condition can be proved. This is included in the key of each
+	 * condition.
+	 */
+	private static final String SOLVER_SETTINGS = "version=" + solverVersion()
+			+ ",rwmode=" + VerificationCheck.getRwmode() + ",maxsteps="
+			+ VerificationCheck.getMaxsteps();
+
+	/**
+	 * Construct a verification job.
+	 * 
+	 * @param name
+	 *            --- the name of the job, as shown to the user.
+	 * @param libraries
+	 *            --- the libraries to verify against. These must not be
+	 *            shared with the build.
+	 * @param nthreads
+	 *            --- the number of modules which may be verified
+	 *            concurrently.
+	 * @param cache
+	 *            --- the outcomes of verification conditions already proved.
+	 * @param store
+	 *            --- the outcomes of verification conditions held on disk.
+	 * @param statistics
+	 *            --- the statistics of verifying the project. These are
+	 *            replaced by each run of the job, and must not be shared with
+	 *            the build.
+	 */
+	public VerificationJob(String name, List<Path.Root> libraries,
+			int nthreads, ProofCache cache, ProofStore store,
+			BuildStatistics statistics) {
+		super(name);
+		setPriority(Job.DECORATE);
+		this.root = new SynchronizedRoot(new VirtualRoot(
+				WhileyProjectBuilder.registry));
+		this.libraries = new ArrayList<Path.Root>();
+		for (Path.Root library : libraries) {
+			this.libraries.add(new SynchronizedRoot(library));
+		}
+		this.nthreads = nthreads;
+		this.cache = cache;
+		this.store = store;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Submit a module for verification. This supersedes any previous version
+	 * of the module which has yet to be verified. Verification does not begin
+	 * until the job is scheduled.
+	 * 
+	 * @param id
+	 *            --- the module being verified.
+	 * @param wyal
+	 *            --- the WyAL file generated from the module.
+	 * @param source
+	 *            --- the source file on which verification errors are
+	 *            reported.
+	 */
+	public synchronized void submit(Path.ID id, WyalFile wyal, IFile source) {
+		Task old = pending.remove(id);
+		if (old != null) {
+			old.superseded = true;
+		}
+		pending.put(id, new Task(id, wyal, source));
+	}
+
+	/**
+	 * Abandon the verification of some modules, since they have changed and
+	 * are about to be rebuilt. If any is being verified, then this stops at
+	 * the next verification condition without publishing any markers. The
+	 * verification of other modules is unaffected.
+	 * 
+	 * @param ids
+	 */
+	public synchronized void supersede(Collection<Path.ID> ids) {
+		for (Path.ID id : ids) {
+			Task old = pending.remove(id);
+			if (old != null) {
+				old.superseded = true;
+			}
+		}
+	}
+
+	/**
+	 * Check whether or not any modules are waiting to be verified.
+	 * 
+	 * @return
+	 */
+	public synchronized boolean hasPending() {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Forget all modules waiting to be verified. This is used when the project
+	 * is completely rebuilt.
+	 */
+	public synchronized void clear() {
+		supersede(new ArrayList<Path.ID>(pending.keySet()));
+	}
+
+	/**
+	 * Hand over those modules waiting to be verified whose source files lie
+	 * within any of the given folders to another job. This is used when the
+	 * project is reconfigured, and this job is replaced.
+	 * 
+	 * @param job
+	 *            --- the job which replaces this one.
+	 * @param folders
+	 *            --- the full paths of those source folders whose modules
+	 *            are handed over.
+	 */
+	public void transferTo(VerificationJob job, Collection<IPath> folders) {
+		ArrayList<Task> tasks;
+		synchronized (this) {
+			tasks = new ArrayList<Task>(pending.values());
+			pending.clear();
+		}
+		for (Task task : tasks) {
+			if (task.source == null) {
+				continue;
+			}
+			for (IPath folder : folders) {
+				if (folder.isPrefixOf(task.source.getFullPath())) {
+					job.submit(task.id, task.wyal, task.source);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Schedule verification of any modules which are waiting, after a short
+	 * delay.
+	 */
+	public void reschedule() {
+		if (hasPending()) {
+			schedule(DELAY);
+		}
+	}
+
+	protected IStatus run(final IProgressMonitor monitor) {
+		ArrayList<Task> tasks;
+		synchronized (this) {
+			tasks = new ArrayList<Task>(pending.values());
+		}
+		if (tasks.isEmpty()) {
+			// The report of the last run still stands.
+			return Status.OK_STATUS;
+		}
+		statistics.reset();
+		long start = System.nanoTime();
+		monitor.beginTask(getName(), tasks.size());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(nthreads, tasks.size())));
+		try {
+			ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (final Task task : tasks) {
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						verify(task, monitor);
+						return null;
+					}
+				}));
+			}
+			for (int i = 0; i != tasks.size(); ++i) {
+				if (monitor.isCanceled()) {
+					return Status.CANCEL_STATUS;
+				}
+				Task task = tasks.get(i);
+				monitor.subTask(task.id.toString());
+				try {
+					futures.get(i).get();
+					synchronized (this) {
+						// Only forget the module if it was not resubmitted
+						// whilst being verified.
+						if (pending.get(task.id) == task) {
+							pending.remove(task.id);
+						}
+					}
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof OperationCanceledException) {
+						return Status.CANCEL_STATUS;
+					}
+					Activator.getDefault().getLog().log(
+							new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+									"Unable to verify " + task.id, e
+											.getCause()));
+				} catch (InterruptedException e) {
+					return Status.CANCEL_STATUS;
+				}
+				monitor.worked(1);
+			}
+			if (Trace.VERIFY) {
+				Trace.trace("*** PROOF STORE: " + store.hits() + " hit(s), "
+						+ store.misses() + " miss(es), " + store.writes()
+						+ " write(s)");
+			}
+			return Status.OK_STATUS;
+		} finally {
+			// Verifications which have not started are abandoned; those in
+			// progress complete, but will be repeated.
+			executor.shutdownNow();
+			monitor.done();
+			statistics.finished(System.nanoTime() - start);
+			statistics.save();
+		}
+	}
+
+	/**
+	 * Verify a single module and publish its markers. The assertions of the
+	 * module whose outcome is already known are not verified again. The
+	 * remainder are verified together in batches, so that the job can be
+	 * cancelled between them. The verifier checks assertions in order, and
+	 * stops at the first which fails. Thus, when an assertion fails, those
+	 * before it were proved, and those after it are verified again. Each
+	 * attempt uses its own builder, since builders are not thread safe.
+	 * 
+	 * @param task
+	 * @param monitor
+	 *            --- checked for cancellation between assertions. Progress is
+	 *            not reported, since this may be called concurrently.
+	 * @throws IOException
+	 * @throws CoreException
+	 * @throws OperationCanceledException
+	 *             If the job is cancelled before all assertions are verified.
+	 *             In this case, no markers are published. Likewise, if the
+	 *             task is superseded, then it returns without publishing any.
+	 */
+	private void verify(Task task, IProgressMonitor monitor)
+			throws IOException, CoreException {
+		if (task.superseded || task.source == null || !task.source.exists()) {
+			return;
+		}
+		// First, separate the assertions from the declarations they are
+		// proved against.
+		ArrayList<WyalFile.Declaration> context = new ArrayList<WyalFile.Declaration>();
+		ArrayList<WyalFile.Assert> assertions = new ArrayList<WyalFile.Assert>();
+		for (WyalFile.Declaration d : task.wyal.declarations()) {
+			if (d instanceof WyalFile.Assert) {
+				assertions.add((WyalFile.Assert) d);
+			} else {
+				context.add(d);
+			}
+		}
+
+		// Second, determine those assertions whose outcome is not known. The
+		// key of each is determined only by those declarations it depends
+		// upon, such that changing one declaration does not affect assertions
+		// which don't use it.
+		HashMap<WyalFile.Declaration, String> printed = new HashMap<WyalFile.Declaration, String>();
+		HashMap<String, List<WyalFile.Declaration>> named = new HashMap<String, List<WyalFile.Declaration>>();
+		for (WyalFile.Declaration d : context) {
+			printed.put(d, print(task.wyal, d));
+			List<WyalFile.Declaration> ds = named.get(d.name());
+			if (ds == null) {
+				ds = new ArrayList<WyalFile.Declaration>();
+				named.put(d.name(), ds);
+			}
+			ds.add(d);
+		}
+		ArrayList<SyntaxError> errors = new ArrayList<SyntaxError>();
+		ArrayList<WyalFile.Assert> remaining = new ArrayList<WyalFile.Assert>();
+		HashMap<WyalFile.Assert, String> keys = new HashMap<WyalFile.Assert, String>();
+		for (WyalFile.Assert a : assertions) {
+			Set<WyalFile.Declaration> uses = dependencies(a, context, named);
+			String key = ProofCache.hash(null, SOLVER_SETTINGS);
+			for (WyalFile.Declaration d : context) {
+				// NOTE: context is in declaration order, hence keys are
+				// deterministic.
+				if (uses.contains(d)) {
+					key = ProofCache.hash(key, printed.get(d));
+				}
+			}
+			key = ProofCache.hash(key, print(task.wyal, a));
+			ProofCache.Outcome outcome = lookup(key);
+			keys.put(a, key);
+			if (outcome == null) {
+				remaining.add(a);
+			} else if (!outcome.proved()) {
+				errors.add(failure(task.wyal, a, outcome.message()));
+			}
+		}
+
+		// Third, verify those remaining.
+		int size = BATCH_SIZE;
+		while (!remaining.isEmpty()) {
+			if (monitor.isCanceled()) {
+				throw new OperationCanceledException();
+			} else if (task.superseded) {
+				return;
+			}
+			List<WyalFile.Assert> batch = remaining.subList(0,
+					Math.min(size, remaining.size()));
+			size = BATCH_SIZE;
+			WyalFile wyal = new WyalFile(task.id, task.wyal.filename());
+			for (WyalFile.Declaration d : context) {
+				wyal.add(d);
+			}
+			for (WyalFile.Assert a : batch) {
+				wyal.add(a);
+			}
+			int proved;
+			int done;
+			try {
+				build(task.id, wyal);
+				proved = done = batch.size();
+			} catch (SyntaxError e) {
+				proved = indexOf(batch, e);
+				if (proved < 0) {
+					// This is not a failure of any assertion (e.g. it is an
+					// error in some other declaration), and so affects every
+					// assertion equally.
+					errors.add(e);
+					break;
+				} else if (indexOf(batch.subList(proved + 1, batch.size()), e) >= 0) {
+					// Several assertions arise from the same source (e.g. both
+					// bounds of an index), hence it's unclear which failed.
+					// Those before the first were proved, and it is verified
+					// alone next.
+					done = proved;
+					size = 1;
+				} else {
+					errors.add(e);
+					record(keys.get(batch.get(proved)), new ProofCache.Outcome(
+							e.msg()));
+					done = proved + 1;
+				}
+			}
+			for (int i = 0; i != proved; ++i) {
+				record(keys.get(batch.get(i)), ProofCache.PROVED);
+			}
+			remaining.subList(0, done).clear();
+		}
+		if (!task.superseded) {
+			publish(task.source, errors);
+		}
+	}
+
+	/**
+	 * Determine the declarations upon which a given assertion depends. That is,
+	 * every import (since these determine how names are resolved), along with
+	 * the functions and macros which the assertion calls either directly or
+	 * through others. Should the assertion (or one of its dependencies) contain
+	 * something which is not understood, then it is conservatively assumed to
+	 * depend upon every declaration.
+	 * 
+	 * @param assertion
+	 * @param context
+	 *            --- the declarations of the enclosing file, excluding
+	 *            assertions.
+	 * @param named
+	 *            --- the same declarations, indexed by name.
+	 * @return
+	 */
+	private static Set<WyalFile.Declaration> dependencies(
+			WyalFile.Assert assertion, List<WyalFile.Declaration> context,
+			Map<String, List<WyalFile.Declaration>> named) {
+		HashSet<WyalFile.Declaration> uses = new HashSet<WyalFile.Declaration>();
+		for (WyalFile.Declaration d : context) {
+			if (d instanceof WyalFile.Function || d instanceof WyalFile.Define) {
+				continue;
+			} else if (d instanceof WyalFile.Import) {
+				uses.add(d);
+			} else {
+				// Unknown declaration, which could be used by anything.
+				return new HashSet<WyalFile.Declaration>(context);
+			}
+		}
+		HashSet<String> names = new HashSet<String>();
+		ArrayList<String> worklist = new ArrayList<String>();
+		if (!references(assertion.expr, names)) {
+			return new HashSet<WyalFile.Declaration>(context);
+		}
+		worklist.addAll(names);
+		while (!worklist.isEmpty()) {
+			List<WyalFile.Declaration> ds = named.get(worklist.remove(worklist
+					.size() - 1));
+			if (ds == null) {
+				// Declared in another file, hence covered by the imports.
+				continue;
+			}
+			for (WyalFile.Declaration d : ds) {
+				if (d instanceof WyalFile.Import || !uses.add(d)) {
+					continue;
+				}
+				HashSet<String> refs = new HashSet<String>();
+				boolean known;
+				if (d instanceof WyalFile.Function) {
+					WyalFile.Function f = (WyalFile.Function) d;
+					known = references(f.from, refs) && references(f.to, refs)
+							&& references(f.constraint, refs);
+				} else {
+					WyalFile.Define m = (WyalFile.Define) d;
+					known = references(m.from, refs)
+							&& references(m.body, refs);
+				}
+				if (!known) {
+					return new HashSet<WyalFile.Declaration>(context);
+				}
+				for (String name : refs) {
+					if (names.add(name)) {
+						worklist.add(name);
+					}
+				}
+			}
+		}
+		return uses;
+	}
+
+	/**
+	 * Determine the names of the functions and macros called within a given
+	 * type pattern, including its constraints.
+	 * 
+	 * @param pattern
+	 *            --- may be null.
+	 * @param names
+	 *            --- the set to which names are added.
+	 * @return false if the pattern contains something which is not understood.
+	 */
+	private static boolean references(TypePattern pattern, Set<String> names) {
+		if (pattern == null) {
+			return true;
+		} else if (!references(pattern.constraint, names)
+				|| !references(pattern.source, names)) {
+			return false;
+		} else if (pattern instanceof TypePattern.Tuple) {
+			for (TypePattern p : ((TypePattern.Tuple) pattern).patterns) {
+				if (!references(p, names)) {
+					return false;
+				}
+			}
+			return true;
+		} else {
+			return pattern instanceof TypePattern.Leaf;
+		}
+	}
+
+	/**
+	 * Determine the names of the functions and macros called within a given
+	 * expression.
+	 * 
+	 * @param e
+	 *            --- may be null.
+	 * @param names
+	 *            --- the set to which names are added.
+	 * @return false if the expression contains something which is not
+	 *         understood.
+	 */
+	private static boolean references(Expr e, Set<String> names) {
+		if (e == null || e instanceof Expr.Constant
+				|| e instanceof Expr.Variable) {
+			return true;
+		} else if (e instanceof Expr.FunCall) {
+			Expr.FunCall fc = (Expr.FunCall) e;
+			names.add(fc.name);
+			return references(fc.operand, names);
+		} else if (e instanceof Expr.Unary) {
+			return references(((Expr.Unary) e).operand, names);
+		} else if (e instanceof Expr.Binary) {
+			Expr.Binary b = (Expr.Binary) e;
+			return references(b.leftOperand, names)
+					&& references(b.rightOperand, names);
+		} else if (e instanceof Expr.Ternary) {
+			Expr.Ternary t = (Expr.Ternary) e;
+			return references(t.firstOperand, names)
+					&& references(t.secondOperand, names)
+					&& references(t.thirdOperand, names);
+		} else if (e instanceof Expr.Nary) {
+			for (Expr operand : ((Expr.Nary) e).operands) {
+				if (!references(operand, names)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (e instanceof Expr.IndexOf) {
+			Expr.IndexOf i = (Expr.IndexOf) e;
+			return references(i.operand, names)
+					&& references(i.index, names);
+		} else if (e instanceof Expr.Quantifier) {
+			Expr.Quantifier q = (Expr.Quantifier) e;
+			return references(q.pattern, names)
+					&& references(q.operand, names);
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Get the outcome of proving a given condition, or null if this is not
+	 * known. The cache is checked before the store and, if the store holds the
+	 * outcome, then it is added to the cache.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	private ProofCache.Outcome lookup(String key) {
+		ProofCache.Outcome outcome = cache.get(key);
+		if (outcome == null) {
+			outcome = store.get(key);
+			if (outcome != null) {
+				cache.put(key, outcome);
+			}
+		}
+		return outcome;
+	}
+
+	/**
+	 * Record the outcome of proving a given condition in both the cache and
+	 * the store.
+	 * 
+	 * @param key
+	 * @param outcome
+	 */
+	private void record(String key, ProofCache.Outcome outcome) {
+		cache.put(key, outcome);
+		store.put(key, outcome);
+	}
+
+	/**
+	 * Determine the version of the solver. This is taken from the manifest of
+	 * the compiler jar if possible, or otherwise from the version of this
+	 * plugin (which embeds the compiler jar). Either way, it is the same for
+	 * every installation of the same solver, such that they share proofs.
+	 * 
+	 * @return
+	 */
+	private static String solverVersion() {
+		Package pkg = VerificationCheck.class.getPackage();
+		if (pkg != null && pkg.getImplementationVersion() != null) {
+			return pkg.getImplementationVersion();
+		}
+		Activator plugin = Activator.getDefault();
+		if (plugin != null && plugin.getBundle() != null) {
+			return Activator.PLUGIN_ID + "-" + plugin.getBundle().getVersion();
+		}
+		return "unknown";
+	}
+
+	/**
+	 * Verify a given WyAL file.
+	 * 
+	 * @param id
+	 * @param wyal
+	 * @throws IOException
+	 */
+	private void build(Path.ID id, WyalFile wyal) throws IOException {
+		StdProject project = new StdProject();
+		project.roots().add(root);
+		project.roots().addAll(libraries);
+		TimedPipeline<?> pipeline = new TimedPipeline(
+				WycsBuildTask.defaultPipeline, "wycs", statistics);
+		Wyal2WycsBuilder wycs = new Wyal2WycsBuilder(project,
+				(Pipeline) pipeline);
+		wycs.setLogger(pipeline.logger(Trace.logger(Trace.COMPILER)));
+
+		Path.Entry<WyalFile> entry = root.create(id, WyalFile.ContentType);
+		entry.write(wyal);
+		long start = System.nanoTime();
+		try {
+			wycs.build((Collection) Collections.singleton(new Pair<Path.Entry<?>, Path.Root>(
+					entry, root)));
+		} finally {
+			statistics.record("wycs", id, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Determine which of the given assertions an error was reported against,
+	 * or -1 if none of them.
+	 * 
+	 * @param assertions
+	 * @param error
+	 * @return
+	 */
+	private static int indexOf(List<WyalFile.Assert> assertions,
+			SyntaxError error) {
+		for (int i = 0; i != assertions.size(); ++i) {
+			Attribute.Source source = assertions.get(i).attribute(
+					Attribute.Source.class);
+			if (source != null && source.start == error.start()
+					&& source.end == error.end()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reconstruct the error reported against an assertion which is known to
+	 * fail.
+	 * 
+	 * @param wyal
+	 * @param assertion
+	 * @param message
+	 * @return
+	 */
+	private static SyntaxError failure(WyalFile wyal,
+			WyalFile.Assert assertion, String message) {
+		Attribute.Source source = assertion.attribute(Attribute.Source.class);
+		int start = source != null ? source.start : 0;
+		int end = source != null ? source.end : 0;
+		return new SyntaxError(message, wyal.filename(), start, end);
+	}
+
+	/**
+	 * Print a declaration in its normalised form. Source attributes are not
+	 * printed, and hence the same declaration prints identically wherever it
+	 * appears.
+	 * 
+	 * @param wyal
+	 * @param d
+	 * @return
+	 */
+	private static String print(WyalFile wyal, WyalFile.Declaration d) {
+		StringWriter writer = new StringWriter();
+		WyalFileStructuredPrinter printer = new WyalFileStructuredPrinter(
+				writer);
+		if (d instanceof WyalFile.Import) {
+			printer.write(wyal, (WyalFile.Import) d);
+		} else if (d instanceof WyalFile.Function) {
+			printer.write(wyal, (WyalFile.Function) d);
+		} else if (d instanceof WyalFile.Define) {
+			printer.write(wyal, (WyalFile.Define) d);
+		} else if (d instanceof WyalFile.Assert) {
+			printer.write(wyal, (WyalFile.Assert) d);
+		} else {
+			// Unknown declarations are distinguished by name, at least.
+			writer.write(d.getClass().getName() + " " + d.name());
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Replace the verification markers on a source file with those for the
+	 * given errors. Markers for errors which were already reported are left
+	 * alone, and the rest are updated in a single workspace operation.
+	 * 
+	 * @param file
+	 * @param errors
+	 * @throws CoreException
+	 */
+	private static void publish(IFile file, List<SyntaxError> errors)
+			throws CoreException {
+		MarkerUpdate markers = new MarkerUpdate();
+		markers.reset(file, Activator.WYCLIPSE_VERIFICATION_MARKER_ID);
+		for (SyntaxError error : errors) {
+			markers.add(file, Activator.WYCLIPSE_VERIFICATION_MARKER_ID, error);
+		}
+		markers.apply(file.getWorkspace(), null);
+	}
+
+	/**
+	 * A module waiting to be verified.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class Task {
+		public final Path.ID id;
+		public final WyalFile wyal;
+		public final IFile source;
+
+		/**
+		 * Set when the module has changed since this task was submitted,
+		 * hence verifying it is pointless.
+		 */
+		public volatile boolean superseded;
+
+		public Task(Path.ID id, WyalFile wyal, IFile source) {
+			this.id = id;
+			this.wyal = wyal;
+			this.source = source;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyclipse.core.builder;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ISaveContext;
+import org.eclipse.core.resources.ISaveParticipant;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+import wyclipse.core.Activator;
+import wyclipse.core.WhileyNature;
+
+/**
+ * Responsible for saving the state of each Whiley project builder when the
+ * workspace is saved. This allows a builder to pick up where it left off when
+ * Eclipse is restarted, rather than having to rebuild the entire project.
+ * Snapshots are ignored, since the state includes the intermediate files of
+ * the project and is relatively expensive to write.
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class WhileyBuilderSaveParticipant implements ISaveParticipant {
+
+	public void prepareToSave(ISaveContext context) throws CoreException {
+	}
+
+	public void saving(ISaveContext context) throws CoreException {
+		switch (context.getKind()) {
+		case ISaveContext.FULL_SAVE:
+			for (IProject project : ResourcesPlugin.getWorkspace().getRoot()
+					.getProjects()) {
+				save(project);
+			}
+			break;
+		case ISaveContext.PROJECT_SAVE:
+			save(context.getProject());
+			break;
+		}
+	}
+
+	public void doneSaving(ISaveContext context) {
+	}
+
+	public void rollback(ISaveContext context) {
+	}
+
+	/**
+	 * Save the state of the builder for a given project (if it has one). A
+	 * failure to save is logged rather than reported, since the only
+	 * consequence is a longer build when the project is next opened.
+	 * 
+	 * @param project
+	 * @throws CoreException
+	 */
+	private void save(IProject project) throws CoreException {
+		if (!project.isOpen() || !project.hasNature(Activator.WYCLIPSE_NATURE_ID)) {
+			return;
+		}
+		WhileyNature nature = (WhileyNature) project
+				.getNature(Activator.WYCLIPSE_NATURE_ID);
+		WhileyProjectBuilder builder = nature.getWhileyProjectBuilder();
+		if (builder == null) {
+			// The project has not been built since the workspace was opened,
+			// so any previously saved state remains current.
+			return;
+		}
+		File file = WhileyProjectBuilder.getStateFile(project);
+		try {
+			builder.saveState(file);
+		} catch (IOException e) {
+			file.delete();
+			Activator.getDefault().getLog().log(
+					new Status(IStatus.WARNING, Activator.PLUGIN_ID,
+							"Unable to save build state for "
+									+ project.getName(), e));
+		}
+	}
+}
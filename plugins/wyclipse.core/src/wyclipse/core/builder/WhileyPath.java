@@ -34,6 +34,26 @@ public final class WhileyPath {
 	private IPath defaultOutputFolder;
 	private boolean enableVerification;
 	private boolean enableRuntimeAssertions;
+	private boolean enableParallelVerification;
+	private int proofCacheSize = DEFAULT_PROOF_CACHE_SIZE;
+	private IPath proofStoreFolder;
+	private int proofStoreSize = DEFAULT_PROOF_STORE_SIZE;
+	private int buildDelay = DEFAULT_BUILD_DELAY;
+	
+	/**
+	 * The default number of proof outcomes which are cached in memory.
+	 */
+	public static final int DEFAULT_PROOF_CACHE_SIZE = 10000;
+	
+	/**
+	 * The default size (in megabytes) of the proof store on disk.
+	 */
+	public static final int DEFAULT_PROOF_STORE_SIZE = 64;
+	
+	/**
+	 * The default delay (in milliseconds) before an automatic build begins.
+	 */
+	public static final int DEFAULT_BUILD_DELAY = 300;
 	
 	public WhileyPath() {
 		entries = new ArrayList<Entry>();
@@ -76,6 +96,71 @@ public final class WhileyPath {
 		this.enableRuntimeAssertions = enableRuntimeAssertions;
 	}
 	
+	public boolean getEnableParallelVerification() {
+		return enableParallelVerification;
+	}
+	
+	public void setEnableParallelVerification(boolean enableParallelVerification) {
+		this.enableParallelVerification = enableParallelVerification;
+	}
+	
+	/**
+	 * Get the maximum number of proof outcomes which are cached in memory, so
+	 * that unchanged verification conditions are not proved again.
+	 * 
+	 * @return
+	 */
+	public int getProofCacheSize() {
+		return proofCacheSize;
+	}
+	
+	public void setProofCacheSize(int proofCacheSize) {
+		this.proofCacheSize = proofCacheSize;
+	}
+	
+	/**
+	 * Get the local directory in which proof outcomes are stored, so they can
+	 * be reused across sessions and projects. If this is null, then the
+	 * default location is used.
+	 * 
+	 * @return
+	 */
+	public IPath getProofStoreFolder() {
+		return proofStoreFolder;
+	}
+	
+	public void setProofStoreFolder(IPath proofStoreFolder) {
+		this.proofStoreFolder = proofStoreFolder;
+	}
+	
+	/**
+	 * Get the maximum size (in megabytes) of the proof store.
+	 * 
+	 * @return
+	 */
+	public int getProofStoreSize() {
+		return proofStoreSize;
+	}
+	
+	public void setProofStoreSize(int proofStoreSize) {
+		this.proofStoreSize = proofStoreSize;
+	}
+	
+	/**
+	 * Get the delay (in milliseconds) between a change being made and an
+	 * automatic build of it beginning. Further changes made within this time
+	 * are built together. If this is zero, automatic builds begin immediately.
+	 * 
+	 * @return
+	 */
+	public int getBuildDelay() {
+		return buildDelay;
+	}
+	
+	public void setBuildDelay(int buildDelay) {
+		this.buildDelay = buildDelay;
+	}
+	
 	public List<Entry> getEntries() {
 		return entries;
 	}
@@ -99,6 +184,21 @@ public final class WhileyPath {
 			if(enableRuntimeAssertions) {
 				root.setAttribute("runtimeassertions","true");
 			}
+			if(enableParallelVerification) {
+				root.setAttribute("parallel","true");
+			}
+			if(proofCacheSize != DEFAULT_PROOF_CACHE_SIZE) {
+				root.setAttribute("proofcache",Integer.toString(proofCacheSize));
+			}
+			if(proofStoreFolder != null) {
+				root.setAttribute("proofstore",proofStoreFolder.toString());
+			}
+			if(proofStoreSize != DEFAULT_PROOF_STORE_SIZE) {
+				root.setAttribute("proofstoresize",Integer.toString(proofStoreSize));
+			}
+			if(buildDelay != DEFAULT_BUILD_DELAY) {
+				root.setAttribute("builddelay",Integer.toString(buildDelay));
+			}
 			doc.appendChild(root);
 
 			for (Entry e : entries) {
@@ -184,6 +284,46 @@ public final class WhileyPath {
 							.parseBoolean(globalEnableRuntimeAssertions
 									.getNodeValue()));
 		}
+		Node globalEnableParallelVerification = root.getAttributes().getNamedItem(
+				"parallel");
+		if (globalEnableParallelVerification != null) {
+			whileypath.setEnableParallelVerification(Boolean
+					.parseBoolean(globalEnableParallelVerification.getNodeValue()));
+		}
+		Node globalProofCacheSize = root.getAttributes().getNamedItem(
+				"proofcache");
+		if (globalProofCacheSize != null) {
+			try {
+				whileypath.setProofCacheSize(Integer
+						.parseInt(globalProofCacheSize.getNodeValue()));
+			} catch (NumberFormatException e) {
+				// ignore, and use the default
+			}
+		}
+		Node globalProofStore = root.getAttributes().getNamedItem("proofstore");
+		if (globalProofStore != null) {
+			whileypath.setProofStoreFolder(new org.eclipse.core.runtime.Path(
+					globalProofStore.getNodeValue()));
+		}
+		Node globalProofStoreSize = root.getAttributes().getNamedItem(
+				"proofstoresize");
+		if (globalProofStoreSize != null) {
+			try {
+				whileypath.setProofStoreSize(Integer
+						.parseInt(globalProofStoreSize.getNodeValue()));
+			} catch (NumberFormatException e) {
+				// ignore, and use the default
+			}
+		}
+		Node globalBuildDelay = root.getAttributes().getNamedItem("builddelay");
+		if (globalBuildDelay != null) {
+			try {
+				whileypath.setBuildDelay(Math.max(0,
+						Integer.parseInt(globalBuildDelay.getNodeValue())));
+			} catch (NumberFormatException e) {
+				// ignore, and use the default
+			}
+		}
 		
 		// ========================================================================
 		// Path Entries
@@ -27,11 +27,16 @@ package wyclipse.core.builder;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
 
 import wyclipse.core.Activator;
+import wyclipse.core.Trace;
 import wyclipse.core.WhileyNature;
 import wyclipse.core.builder.ContainerRoot.IFileEntry;
 import wyfs.lang.*;
@@ -47,10 +52,8 @@ import wybs.util.StdProject;
 import wyc.builder.WhileyBuilder;
 import wyc.lang.WhileyFile;
 import wyc.util.WycBuildTask;
-import wycs.builders.Wyal2WycsBuilder;
 import wycs.core.WycsFile;
 import wycs.syntax.WyalFile;
-import wycs.util.WycsBuildTask;
 import wyil.builders.Wyil2WyalBuilder;
 import wyil.checks.*;
 import wyil.io.WyilFilePrinter;
@@ -78,7 +81,13 @@ import jasm.lang.ClassFile;
  * 
  */
 public class WhileyProjectBuilder extends IncrementalProjectBuilder {
-	private static final boolean verbose = true;
+	/**
+	 * The WyIL type and bytecode representations are interned in global tables
+	 * which are not thread safe. Therefore, builders which construct them must
+	 * not run concurrently, even when building independent modules (or
+	 * projects).
+	 */
+	private static final Object compilerLock = new Object();
 
 	/**
 	 * This is the WyBS project which actually controls the While compiler. This
@@ -99,10 +108,157 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 	 * depend upon them may also be added. Or, if they represent e.g. binary
 	 * dependents (e.g. jar files) then this may force a total recompilation.
 	 */
-	protected final ArrayList<IFileEntry> delta = new ArrayList<IFileEntry>();
+	protected final LinkedHashSet<IFileEntry> delta = new LinkedHashSet<IFileEntry>();
+
+	/**
+	 * The dependency graph records, for each Whiley module, those modules
+	 * which it depends upon (and vice versa). This is used to determine which
+	 * modules are affected when a given module is changed, added or removed.
+	 */
+	protected final DependencyGraph dependencyGraph = new DependencyGraph();
+
+	/**
+	 * The set of modules whose source files have been removed. These are
+	 * actioned once the resource delta has been completely traversed, since
+	 * actioning them requires the source roots to be refreshed.
+	 */
+	private final HashSet<Path.ID> removedModules = new HashSet<Path.ID>();
+
+	/**
+	 * The delay (in milliseconds) before the changes seen by automatic builds
+	 * are built. Changes which arrive within this time are built together. This
+	 * is taken from the whileypath.
+	 */
+	private int buildDelay;
+
+	/**
+	 * Builds the changes seen by automatic builds, once the build delay has
+	 * passed. This is created when first needed.
+	 */
+	private DeferredBuild deferredBuild;
+
+	/**
+	 * The build rules configured for each source root. These are retained so
+	 * that the settings (and outputs) of each rule are known when the project
+	 * is reconfigured or cleaned.
+	 */
+	private final HashMap<SourceRoot, List<RuleTemplate>> ruleTemplates = new HashMap<SourceRoot, List<RuleTemplate>>();
+
+	/**
+	 * The effective settings of each source folder, as determined from the
+	 * whileypath. These are compared against the settings of a changed
+	 * whileypath, to determine which source folders are affected.
+	 */
+	private final HashMap<IPath, String> configuration = new HashMap<IPath, String>();
+
+	/**
+	 * The roots of the libraries on the whileypath, identified by their
+	 * location and modification time.
+	 */
+	private final HashMap<String, Path.Root> libraryRoots = new HashMap<String, Path.Root>();
+
+	/**
+	 * The fingerprint of each source file as it was when last successfully
+	 * compiled. This is used to identify those source files whose contents
+	 * have not actually changed (e.g. because they were touched, or restored
+	 * by a version control system), and which need not be recompiled. It is
+	 * also used to identify those source files which have changed whilst
+	 * Eclipse was not running.
+	 */
+	private final HashMap<Path.ID, Long> fingerprints = new HashMap<Path.ID, Long>();
+
+	/**
+	 * The files generated for each module. This is used to delete exactly
+	 * those files when the project is cleaned, or when the source file of a
+	 * module is removed.
+	 */
+	private final OutputManifest manifest = new OutputManifest();
+
+	/**
+	 * The markers to be placed on source files by the build in progress. These
+	 * are applied together once the build finishes.
+	 */
+	private final MarkerUpdate markers = new MarkerUpdate();
+
+	/**
+	 * The errors reported against individual files during the build in
+	 * progress. Since files which fail are set aside, whilst the remainder
+	 * continue to be built, a single build can report many errors. Each is
+	 * paired with the entry it was reported against.
+	 */
+	private final Queue<Pair<Path.Entry<?>, SyntaxError>> errors = new ConcurrentLinkedQueue<Pair<Path.Entry<?>, SyntaxError>>();
+
+	/**
+	 * The modules which have failed during the build in progress.
+	 */
+	private final Set<Path.ID> failedModules = Collections
+			.newSetFromMap(new ConcurrentHashMap<Path.ID, Boolean>());
+
+	/**
+	 * The set of modules whose source files have changed, but whose dependents
+	 * have not yet been scheduled for recompilation. Dependents are only
+	 * scheduled once the module has been compiled, and then only if its WyIL
+	 * file has actually changed.
+	 */
+	private final HashSet<Path.ID> changedModules = new HashSet<Path.ID>();
+
+	/**
+	 * The job responsible for verifying the modules of this project, or null
+	 * if verification is not enabled for any source root. Verification is
+	 * performed separately from the build, since it can take a long time.
+	 */
+	private VerificationJob verificationJob;
+
+	/**
+	 * The outcomes of verification conditions which have already been proved
+	 * (or not). This is retained when the project is reinitialised, since the
+	 * outcome of a condition does not depend upon the project configuration.
+	 */
+	private final ProofCache proofCache = new ProofCache(
+			WhileyPath.DEFAULT_PROOF_CACHE_SIZE);
+
+	/**
+	 * The progress monitor for the build currently in progress. Each stage
+	 * reports one unit of work per file it processes, and checks for
+	 * cancellation between files.
+	 */
+	private IProgressMonitor progress = new NullProgressMonitor();
+
+	/**
+	 * Indicates that the state of this builder was restored from a previous
+	 * session, and has not yet been brought up to date.
+	 */
+	private boolean stateRestored;
+
+	/**
+	 * Indicates that the state saved from a previous session could not be
+	 * restored, and so the project must be built in full, even if a resource
+	 * delta is available.
+	 */
+	private boolean stateDiscarded;
+
+	/**
+	 * Identifies the format of the saved builder state. This should be
+	 * incremented whenever the format changes.
+	 */
+	private static final int STATE_VERSION = 4;
 
 	public void initialise() throws CoreException {
-		System.err.println("WHILEY PROJECT BUILDER INITIALISED");
+		initialise(true);
+	}
+
+	/**
+	 * Initialise the whiley project for this builder from the whileypath and,
+	 * optionally, restore the state saved from a previous session. If the
+	 * saved state cannot be restored, then it is discarded.
+	 * 
+	 * @param restore
+	 * @throws CoreException
+	 */
+	protected void initialise(boolean restore) throws CoreException {
+		if (Trace.BUILDER) {
+			Trace.trace("WHILEY PROJECT BUILDER INITIALISED");
+		}
 		// First, get the whileypath from the nature
 		IProject iproject = (IProject) getProject();
 		this.whileyNature = (WhileyNature) iproject
@@ -111,16 +267,305 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 		
 		WhileyPath whileypath = whileyNature.getWhileyPath();		
 		
+		this.dependencyGraph.clear();
+		this.fingerprints.clear();
+		this.changedModules.clear();
+		this.stateRestored = false;
+		
+		// Second, configure the whiley project from the whileypath
+		configure(whileypath);
+		
+		// Finally, restore the state from the previous session (if any)
+		if (restore) {
+			File file = getStateFile(iproject);
+			try {
+				stateRestored = loadState(file);
+			} catch (IOException e) {
+				Trace.warning("Discarding build state: " + e.getMessage());
+				file.delete();
+				// The state may have been partially restored, in which case
+				// none of it can be trusted. Hence, the next build must be a
+				// full build.
+				manifest.clear();
+				delta.clear();
+				initialise(false);
+				stateDiscarded = true;
+			}
+		}
+	}
+	
+	/**
+	 * Create a fresh whiley project, along with its builders, from a given
+	 * whileypath. Any state recorded about the modules of the project (e.g.
+	 * their dependencies) is unaffected.
+	 * 
+	 * @param whileypath
+	 */
+	private void configure(WhileyPath whileypath) {
+		if (verificationJob != null) {
+			verificationJob.cancel();
+			verificationJob = null;
+		}
 		this.whileyProject = new StdProject();
+		this.ruleTemplates.clear();
+		this.configuration.clear();
+		this.libraryRoots.clear();
 		
-		// Second, initialise the list of available builders
+		// First, initialise the list of available builders
 		Map<String,Builder> builders = initialiseBuilders();
 		
-		// Finally, initialise the whiley project from whileypath
-		initialiseWhileyProject(whileypath, builders,
-				iproject);				
+		// Second, initialise the whiley project from whileypath
+		initialiseWhileyProject(whileypath, builders, getProject());
 	}
-	
+
+	/**
+	 * <p>
+	 * Reconfigure this builder after the whileypath has changed. Rather than
+	 * recompiling everything, the settings of each source folder and the
+	 * libraries are compared against those of the previous whileypath, and
+	 * only those modules affected by the differences are marked for
+	 * recompilation. These are:
+	 * </p>
+	 * <ul>
+	 * <li>All modules of a source folder whose settings have changed (e.g. its
+	 * output folder, or whether WyAL files are generated).</li>
+	 * <li>Those modules which depend upon a module which has left a source
+	 * folder (e.g. because the folder was removed, or its includes changed),
+	 * or which import a module which has joined one.</li>
+	 * <li>Those modules which import from a library which was added or
+	 * removed, along with those which failed to compile (since they may refer
+	 * to a name which only an added library provides).</li>
+	 * </ul>
+	 * <p>
+	 * The outputs of source folders whose settings are unchanged retain their
+	 * fingerprints, and any of their modules waiting to be verified remain so.
+	 * </p>
+	 * 
+	 * @throws CoreException
+	 */
+	protected void reconfigure() throws CoreException {
+		if (Trace.BUILDER) {
+			Trace.trace("*** RECONFIGURING WHILEY PROJECT");
+		}
+		// First, record the existing configuration.
+		HashMap<IPath, String> oldConfiguration = new HashMap<IPath, String>(
+				configuration);
+		HashMap<String, Path.Root> oldLibraries = new HashMap<String, Path.Root>(
+				libraryRoots);
+		HashMap<IPath, List<RuleTemplate>> oldTemplates = templatesByFolder();
+		HashMap<IPath, Map<Path.ID, IFileEntry<?>>> oldModules = modulesByFolder();
+		HashSet<Path.ID> affected = new HashSet<Path.ID>();
+		for (IFileEntry<?> e : delta) {
+			affected.add(e.id());
+		}
+		VerificationJob oldJob = verificationJob;
+
+		// Second, configure the whiley project from the new whileypath.
+		configure(whileyNature.getWhileyPath());
+		HashMap<IPath, List<RuleTemplate>> newTemplates = templatesByFolder();
+		HashMap<IPath, Map<Path.ID, IFileEntry<?>>> newModules = modulesByFolder();
+
+		// Third, compare the settings of each source folder.
+		HashSet<IPath> folders = new HashSet<IPath>(oldModules.keySet());
+		folders.addAll(newModules.keySet());
+		HashSet<IPath> unchangedFolders = new HashSet<IPath>();
+		HashMap<Path.ID, IFileEntry<?>> left = new HashMap<Path.ID, IFileEntry<?>>();
+		HashSet<Path.ID> joined = new HashSet<Path.ID>();
+		HashSet<Path.ID> all = new HashSet<Path.ID>();
+		for (IPath folder : folders) {
+			Map<Path.ID, IFileEntry<?>> before = oldModules.get(folder);
+			Map<Path.ID, IFileEntry<?>> after = newModules.get(folder);
+			before = before != null ? before : Collections.<Path.ID, IFileEntry<?>>emptyMap();
+			after = after != null ? after : Collections.<Path.ID, IFileEntry<?>>emptyMap();
+			String settings = configuration.get(folder);
+			if (settings != null && settings.equals(oldConfiguration.get(folder))) {
+				// The rules are identical, hence their outputs are as before.
+				unchangedFolders.add(folder);
+				List<RuleTemplate> olds = oldTemplates.get(folder);
+				List<RuleTemplate> news = newTemplates.get(folder);
+				for (int i = 0; i != news.size(); ++i) {
+					if (news.get(i).outputs != null) {
+						news.get(i).outputs.inherit(olds.get(i).outputs);
+					}
+				}
+			} else {
+				affected.addAll(after.keySet());
+				for (IFileEntry<?> e : before.values()) {
+					// Verification markers are regenerated (if applicable)
+					// when the module is verified again.
+					e.getFile().deleteMarkers(
+							Activator.WYCLIPSE_VERIFICATION_MARKER_ID, true,
+							IResource.DEPTH_ZERO);
+				}
+			}
+			for (Map.Entry<Path.ID, IFileEntry<?>> e : before.entrySet()) {
+				if (!after.containsKey(e.getKey())) {
+					left.put(e.getKey(), e.getValue());
+				}
+			}
+			for (Path.ID id : after.keySet()) {
+				if (!before.containsKey(id)) {
+					joined.add(id);
+				}
+			}
+			all.addAll(after.keySet());
+		}
+		left.keySet().removeAll(all);
+		affected.addAll(dependencyGraph.transitiveDependentsOf(left.keySet()));
+		affected.addAll(dependencyGraph.transitiveDependentsOf(joined));
+		HashSet<IPath> outputs = new HashSet<IPath>();
+		for (Map.Entry<Path.ID, IFileEntry<?>> e : left.entrySet()) {
+			// This module is no longer part of the project.
+			dependencyGraph.remove(e.getKey());
+			fingerprints.remove(e.getKey());
+			outputs.addAll(manifest.remove(e.getKey()));
+			e.getValue().getFile().deleteMarkers(Activator.WYCLIPSE_MARKER_ID,
+					true, IResource.DEPTH_ZERO);
+			e.getValue().getFile().deleteMarkers(
+					Activator.WYCLIPSE_VERIFICATION_MARKER_ID, true,
+					IResource.DEPTH_ZERO);
+		}
+
+		deleteOutputs(outputs, null);
+
+		// Fourth, compare the libraries.
+		ArrayList<Path.Root> changedLibraries = new ArrayList<Path.Root>();
+		boolean librariesAdded = false;
+		for (Map.Entry<String, Path.Root> e : oldLibraries.entrySet()) {
+			if (!libraryRoots.containsKey(e.getKey())) {
+				changedLibraries.add(e.getValue());
+			}
+		}
+		for (Map.Entry<String, Path.Root> e : libraryRoots.entrySet()) {
+			if (!oldLibraries.containsKey(e.getKey())) {
+				changedLibraries.add(e.getValue());
+				librariesAdded = true;
+			}
+		}
+		if (!changedLibraries.isEmpty()) {
+			affected.addAll(importersOf(changedLibraries));
+		}
+		if (librariesAdded) {
+			for (Map<Path.ID, IFileEntry<?>> modules : newModules.values()) {
+				for (IFileEntry<?> e : modules.values()) {
+					if (e.getFile().findMaxProblemSeverity(
+							Activator.WYCLIPSE_MARKER_ID, true,
+							IResource.DEPTH_ZERO) == IMarker.SEVERITY_ERROR) {
+						affected.add(e.id());
+					}
+				}
+			}
+		}
+
+		// Fifth, hand over any modules waiting to be verified which are
+		// unaffected.
+		if (oldJob != null && verificationJob != null) {
+			oldJob.transferTo(verificationJob, unchangedFolders);
+		}
+
+		// Finally, mark the affected modules for recompilation. Entries are
+		// reacquired, since the source roots have been recreated.
+		try {
+			delta.clear();
+			for (Path.ID id : affected) {
+				IFileEntry<?> e = getSourceEntry(id);
+				if (e != null) {
+					delta.add(e);
+				}
+			}
+		} catch (CoreIOException e) {
+			throw e.payload;
+		} catch (IOException e) {
+			// deadcode
+		}
+		if (Trace.BUILDER) {
+			Trace.trace("*** RECONFIGURED WHILEY PROJECT: " + delta.size()
+					+ " module(s) affected");
+		}
+	}
+
+	/**
+	 * Determine the build rules of each source root, identified by the full
+	 * path of its folder.
+	 * 
+	 * @return
+	 */
+	private HashMap<IPath, List<RuleTemplate>> templatesByFolder() {
+		HashMap<IPath, List<RuleTemplate>> templates = new HashMap<IPath, List<RuleTemplate>>();
+		for (Map.Entry<SourceRoot, List<RuleTemplate>> e : ruleTemplates
+				.entrySet()) {
+			templates.put(e.getKey().getContainer().getFullPath(), e.getValue());
+		}
+		return templates;
+	}
+
+	/**
+	 * Determine the modules of each source root, identified by the full path
+	 * of its folder.
+	 * 
+	 * @return
+	 * @throws CoreException
+	 */
+	private HashMap<IPath, Map<Path.ID, IFileEntry<?>>> modulesByFolder()
+			throws CoreException {
+		HashMap<IPath, Map<Path.ID, IFileEntry<?>>> modules = new HashMap<IPath, Map<Path.ID, IFileEntry<?>>>();
+		try {
+			for (SourceRoot root : ruleTemplates.keySet()) {
+				HashMap<Path.ID, IFileEntry<?>> entries = new HashMap<Path.ID, IFileEntry<?>>();
+				for (Object e : root.get()) {
+					IFileEntry<?> ife = (IFileEntry<?>) e;
+					entries.put(ife.id(), ife);
+				}
+				modules.put(root.getContainer().getFullPath(), entries);
+			}
+		} catch (CoreIOException e) {
+			throw e.payload;
+		} catch (IOException e) {
+			// deadcode
+		}
+		return modules;
+	}
+
+	/**
+	 * Determine those modules which import from any of the given libraries.
+	 * That is, those modules with an import filter (including the implicit
+	 * ones) which matches some module in the libraries.
+	 * 
+	 * @param libraries
+	 * @return
+	 */
+	private Set<Path.ID> importersOf(List<Path.Root> libraries) {
+		HashSet<Path.ID> importers = new HashSet<Path.ID>();
+		HashMap<Trie, Boolean> matches = new HashMap<Trie, Boolean>();
+		for (Path.ID module : dependencyGraph.modules()) {
+			for (Trie filter : dependencyGraph.importsOf(module)) {
+				Boolean match = matches.get(filter);
+				if (match == null) {
+					match = false;
+					for (Path.Root library : libraries) {
+						try {
+							if (!library.match(
+									Content.filter(filter, WyilFile.ContentType))
+									.isEmpty()) {
+								match = true;
+								break;
+							}
+						} catch (IOException e) {
+							// Assume the worst if the library is unreadable.
+							match = true;
+						}
+					}
+					matches.put(filter, match);
+				}
+				if (match) {
+					importers.add(module);
+					break;
+				}
+			}
+		}
+		return importers;
+	}
+
 	/**
 	 * Create a standard (wybs) project from a given whileypath and set of
 	 * available builders.
@@ -138,6 +583,10 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 		ContainerRoot defaultOutputRoot = null;
 		boolean globalEnableVerification = whileypath.getEnableVerification();
 		boolean globalEnableRuntimeAssertions = whileypath.getEnableRuntimeAssertions();
+		buildDelay = whileypath.getBuildDelay();
+		proofCache.setCapacity(whileypath.getProofCacheSize());
+		boolean anyVerification = false;
+		ArrayList<String> libraries = new ArrayList<String>();
 		
 		if (whileypath.getDefaultOutputFolder() != null) {			
 			IFolder defaultOutputFolder = project.getFolder(whileypath
@@ -147,8 +596,10 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 			defaultOutputRoot = new ContainerRoot(defaultOutputFolder, registry);
 			whileyProjectRoots.add(defaultOutputRoot);
 			
-			System.err.println("*** INITIALISING DEFAULT OUTPUT ROOT: "
-					+ defaultOutputFolder.getLocation());
+			if (Trace.BUILDER) {
+				Trace.trace("*** INITIALISING DEFAULT OUTPUT ROOT: "
+						+ defaultOutputFolder.getLocation());
+			}
 		}
 		
 		// Second, iterate all entries looking for: actions which define source
@@ -167,11 +618,17 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 				 
 				IFolder sourceFolder = project.getFolder(action
 						.getSourceFolder());
+				boolean generateWyIL = action.getEnableLocalSettings()
+						&& action.getGenerateWyIL();
+				boolean generateWyAL = action.getEnableLocalSettings()
+						&& action.getGenerateWyAL();
 				SourceRoot<WhileyFile> sourceRoot = new SourceRoot<WhileyFile>(
 						sourceFolder, sourceIncludes, registry);
 				whileyProjectRoots.add(sourceRoot);
 				
-				System.err.println("*** INITIALISING WHILEY SOURCE ROOT: " + action.getSourceFolder());
+				if (Trace.BUILDER) {
+					Trace.trace("*** INITIALISING WHILEY SOURCE ROOT: " + action.getSourceFolder());
+				}
 				// ============================================================
 				// Second, create the corresponding output root (if applicable)
 				// ============================================================
@@ -182,58 +639,67 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 					whileyProjectRoots.add(outputRoot);
 				}
 				Path.Root virtualOutputRoot = new VirtualRoot(registry); 				
-				Path.Root wyilOutputRoot = (action.getEnableLocalSettings() && action
-						.getGenerateWyIL()) ? outputRoot : virtualOutputRoot;
-				Path.Root wyalOutputRoot = (action.getEnableLocalSettings() && action
-						.getGenerateWyAL()) ? outputRoot : virtualOutputRoot;
+				Path.Root wyilOutputRoot = generateWyIL ? outputRoot
+						: virtualOutputRoot;
+				Path.Root wyalOutputRoot = generateWyAL ? outputRoot
+						: virtualOutputRoot;
 				whileyProjectRoots.add(virtualOutputRoot);
 				
 				// ============================================================
 				// Third, create the corresponding build rule(s)
 				// ============================================================
-				Builder wycBuilder = builders.get("wyc");
-				StdBuildRule whiley2wyil = new StdBuildRule(wycBuilder,
-						sourceRoot, sourceIncludes, null, wyilOutputRoot);
-				whileyProject.add(whiley2wyil);
+				addBuildRule(sourceRoot, builders, "wyc", sourceRoot,
+						sourceIncludes, wyilOutputRoot);
 				boolean enableVerification = (!action.getEnableLocalSettings() && globalEnableVerification)
 											|| (action.getEnableLocalSettings() && action.getEnableVerification());
+				boolean enableRuntimeAssertions = (!action.getEnableLocalSettings() && globalEnableRuntimeAssertions)
+											|| (action.getEnableLocalSettings() && action.getEnableRuntimeAssertions());
+				configuration.put(sourceFolder.getFullPath(), "includes="
+						+ action.getSourceIncludes() + ",output=" + outputRoot
+						+ ",wyil=" + generateWyIL + ",wyal=" + generateWyAL
+						+ ",verify=" + enableVerification + ",assertions="
+						+ enableRuntimeAssertions);
 				if(enableVerification) {	
 					
-					System.out.println("*** INITIALISING VERIFIER");
+					if (Trace.BUILDER) {
+						Trace.trace("*** INITIALISING VERIFIER");
+					}
 					
-					// Ok, enable the verifier and all its rules
-					Builder wyalBuilder = builders.get("wyal");
-					StdBuildRule wyil2wyal = new StdBuildRule(wyalBuilder,
-							wyilOutputRoot, Content.filter("**",
-									WyilFile.ContentType), null, wyalOutputRoot);
-					whileyProject.add(wyil2wyal);
+					// Ok, enable the verifier and all its rules. The WyAL files
+					// are verified by the verification job, rather than during
+					// the build.
+					addBuildRule(sourceRoot, builders, "wyal", wyilOutputRoot,
+							Content.filter("**", WyilFile.ContentType),
+							wyalOutputRoot);
 					
-					Builder wycsBuilder = builders.get("wycs");
-					StdBuildRule wyal2wycs = new StdBuildRule(
-							wycsBuilder,wyalOutputRoot,
+					addBuildRule(sourceRoot, builders, "verify", wyalOutputRoot,
 							Content.filter("**", WyalFile.ContentType),
-							null,virtualOutputRoot);
-					whileyProject.add(wyal2wycs);
+							virtualOutputRoot);
+					anyVerification = true;
 				}
 				
 				// At this point, we add rules for the backend builders. For the
 				// moment, I'm just assuming only the Java backend.
 								
-				Builder wyjcBuilder = builders.get("wyjc");
-				StdBuildRule wyil2class = new StdBuildRule(wyjcBuilder,
-						wyilOutputRoot, Content.filter("**",
-								WyilFile.ContentType), null, outputRoot);
-				whileyProject.add(wyil2class);
+				addBuildRule(sourceRoot, builders, "wyjc", wyilOutputRoot,
+						Content.filter("**", WyilFile.ContentType), outputRoot);
 				
-				System.err.println("*** INITIALISING WYC BUILD RULE: " + sourceRoot + " => " + outputRoot);				
+				if (Trace.BUILDER) {
+					Trace.trace("*** INITIALISING WYC BUILD RULE: " + sourceRoot + " => " + outputRoot);
+				}
 				
 			} else if(entry instanceof WhileyPath.ExternalLibrary){
 				WhileyPath.ExternalLibrary extlib = (WhileyPath.ExternalLibrary) entry;
 				try {
-					whileyProjectRoots.add(new JarFileRoot(extlib.getLocation().toOSString(), registry));
-					System.err.println("*** INITIALISING EXTERNAL LIBRARY: " + extlib.getLocation());
+					Path.Root library = new JarFileRoot(extlib.getLocation().toOSString(), registry);
+					whileyProjectRoots.add(library);
+					libraryRoots.put(libraryKey(extlib.getLocation()), library);
+					libraries.add(extlib.getLocation().toOSString());
+					if (Trace.BUILDER) {
+						Trace.trace("*** INITIALISING EXTERNAL LIBRARY: " + extlib.getLocation());
+					}
 				} catch(IOException e) {
-					System.err.println("*** FAILED ADDING EXTERNAL LIBRARY: " + extlib.getLocation());
+					Trace.warning("Failed adding external library: " + extlib.getLocation());
 				}
 				
 			} else if(entry instanceof WhileyPath.StandardLibrary){
@@ -241,17 +707,104 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 				IPath path = whileyNature.getStandardLibraries().get(stdlib.getName());
 				try {
 					if(path != null) {
-						whileyProjectRoots.add(new JarFileRoot(path.toOSString(), registry));
-						System.err.println("*** INITIALISING STANDARD LIBRARY: " + path);
+						Path.Root library = new JarFileRoot(path.toOSString(), registry);
+						whileyProjectRoots.add(library);
+						libraryRoots.put(libraryKey(path), library);
+						libraries.add(path.toOSString());
+						if (Trace.BUILDER) {
+							Trace.trace("*** INITIALISING STANDARD LIBRARY: " + path);
+						}
 					} else {
-						System.err.println("*** FAILED ADDING STANDARD LIBRARY: " + path);
+						Trace.warning("Failed adding standard library: " + path);
 					}
 				} catch (IOException e) {
-					System.err.println("*** FAILED ADDING STANDARD LIBRARY: "
+					Trace.warning("Failed adding standard library: "
 							+ path);
 				}
 			}
-		}			
+		}
+		
+		// Finally, create the verification job (if applicable). This opens its
+		// own copy of each library, since roots are not thread safe.
+		if (anyVerification) {
+			ArrayList<Path.Root> libraryRoots = new ArrayList<Path.Root>();
+			for (String library : libraries) {
+				try {
+					libraryRoots.add(new JarFileRoot(library, registry));
+				} catch (IOException e) {
+					Trace.warning("Failed adding verification library: " + library);
+				}
+			}
+			int nthreads = whileypath.getEnableParallelVerification() ? Runtime
+					.getRuntime().availableProcessors() : 1;
+			File proofStoreDir;
+			if (whileypath.getProofStoreFolder() != null) {
+				proofStoreDir = whileypath.getProofStoreFolder().toFile();
+			} else {
+				proofStoreDir = Activator.getDefault().getStateLocation()
+						.append("proofs").toFile();
+			}
+			ProofStore proofStore = ProofStore.open(proofStoreDir,
+					whileypath.getProofStoreSize() * 1024L * 1024L);
+			verificationJob = new VerificationJob("Verifying "
+					+ project.getName(), libraryRoots, nthreads, proofCache,
+					proofStore, BuildStatistics.get(project,
+							BuildStatistics.VERIFICATION));
+		}
+	}
+	
+	/**
+	 * Identify a library by its location and modification time. Thus, a
+	 * library which is rebuilt is considered to be a different library.
+	 * 
+	 * @param location
+	 * @return
+	 */
+	private static String libraryKey(IPath location) {
+		return location.toOSString() + "@"
+				+ location.toFile().lastModified();
+	}
+
+	/**
+	 * Add a build rule to the whiley project, and record it against the source
+	 * root from which it originates.
+	 * 
+	 * @param sourceRoot
+	 *            --- the source root whose files (ultimately) feed this rule.
+	 * @param builders
+	 *            --- the available builders.
+	 * @param builder
+	 *            --- the ID of the builder used by this rule.
+	 * @param source
+	 *            --- the root containing the rule's inputs.
+	 * @param includes
+	 *            --- the inputs which this rule applies to.
+	 * @param target
+	 *            --- the root where the rule's outputs are placed.
+	 */
+	protected void addBuildRule(SourceRoot sourceRoot,
+			Map<String, Builder> builders, String builder, Path.Root source,
+			Content.Filter<?> includes, Path.Root target) {
+		RuleTemplate template = new RuleTemplate(builder, source, includes,
+				target);
+		Builder b = new RecordingBuilder(builders.get(builder), manifest);
+		if (template.outputs != null) {
+			b = new CutoffBuilder(b, template.outputs);
+		}
+		// The builds of different projects may overlap, since each is built
+		// under its own scheduling rule. Their compiler stages may not.
+		b = new MonitoredBuilder(new SerialBuilder(b), builder);
+		whileyProject.add(new StageRule(builder, b, source, includes, target));
+		List<RuleTemplate> templates = ruleTemplates.get(sourceRoot);
+		if (templates == null) {
+			templates = new ArrayList<RuleTemplate>();
+			ruleTemplates.put(sourceRoot, templates);
+		}
+		templates.add(template);
+	}
+	
+	protected Map<String,Builder> initialiseBuilders() {
+		return initialiseBuilders(whileyProject);
 	}
 	
 	/**
@@ -267,7 +820,7 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 	 *         those used within the whileypath to connect build rules with
 	 *         builders.
 	 */
-	protected Map<String,Builder> initialiseBuilders() {
+	protected Map<String,Builder> initialiseBuilders(StdProject whileyProject) {
 		HashMap<String,Builder> builders = new HashMap<String,Builder>();
 		
 		// TODO: For now, I'm hard coding the set of available builders. In
@@ -276,28 +829,27 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 				
 		// First, add the standard Whiley Compiler (WyC), which compiles Whiley
 		// files to WyIL files.
-		Pipeline<WyilFile> pipeline = new Pipeline(WycBuildTask.defaultPipeline);
+		TimedPipeline<WyilFile> pipeline = new TimedPipeline(
+				WycBuildTask.defaultPipeline, "wyc",
+				BuildStatistics.get(getProject()));
 		WhileyBuilder wyc = new WhileyBuilder(whileyProject, pipeline);
-		wyc.setLogger(new Logger.Default(System.err));
+		wyc.setLogger(pipeline.logger(Trace.logger(Trace.COMPILER)));
 		builders.put("wyc", wyc);
 		
 		// Second, add the standard WyAL builder, which compiles WyIL files to
 		// WyAL files.
 		Wyil2WyalBuilder wyal = new Wyil2WyalBuilder(whileyProject);
-		wyal.setLogger(new Logger.Default(System.err));
+		wyal.setLogger(Trace.logger(Trace.COMPILER));
 		builders.put("wyal", wyal);
 		
-		// Third, add the standard WyCS builder, which compiles WyAL files to
-		// WyCS files.
-		Pipeline<WycsFile> wycsPipeline = new Pipeline(WycsBuildTask.defaultPipeline);
-		Wyal2WycsBuilder wycs = new Wyal2WycsBuilder(whileyProject,wycsPipeline);		
-		wycs.setLogger(new Logger.Default(System.err));
-		builders.put("wycs", wycs);
+		// Third, add the verification builder, which submits WyAL files to the
+		// verification job. This then compiles them to WyCS files.
+		builders.put("verify", new VerificationSubmitter(whileyProject));
 		
 		// Fourth, add the standard Wyjc builder, which compiles WyIL files to
 		// JVM Class files.
 		Wyil2JavaBuilder wyjc = new Wyil2JavaBuilder(whileyProject);		
-		wyjc.setLogger(new Logger.Default(System.err));
+		wyjc.setLogger(Trace.logger(Trace.COMPILER));
 		builders.put("wyjc", wyjc);
 		
 		// Done.
@@ -310,18 +862,31 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 			if(whileyProject == null) {
 				initialise();
 			}
+			if (kind != IncrementalProjectBuilder.AUTO_BUILD
+					&& deferredBuild != null
+					&& Job.getJobManager().currentJob() != deferredBuild) {
+				// Any changes waiting to be built are included in this build.
+				deferredBuild.cancel();
+			}
 
 			if (kind == IncrementalProjectBuilder.FULL_BUILD) {
-				buildAll();
+				buildAll(monitor);
 			} else if (kind == IncrementalProjectBuilder.INCREMENTAL_BUILD
 					|| kind == IncrementalProjectBuilder.AUTO_BUILD) {
 				IResourceDelta delta = getDelta(getProject());			
-				if (delta == null) {
-					buildAll();
+				if (delta == null && stateRestored) {
+					buildChangedSinceSave(monitor);
+				} else if (delta == null || stateDiscarded) {
+					buildAll(monitor);
+				} else if (kind == IncrementalProjectBuilder.AUTO_BUILD
+						&& buildDelay > 0) {
+					deferBuild(delta);
 				} else {
 					incrementalBuild(delta, monitor);
 				}
 			}
+			stateRestored = false;
+			stateDiscarded = false;
 		} catch(CoreIOException e) {
 			throw e.payload;
 		} catch(IOException e) {
@@ -330,6 +895,40 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 		return null;
 	}
 
+	/**
+	 * <p>
+	 * Determine the scheduling rule under which this project is built. Rather
+	 * than the whole workspace, this covers only the project itself and those
+	 * projects it references. This is sufficient since the builder only
+	 * modifies resources within the project (i.e. its output folders), whilst
+	 * markers do not require a rule.
+	 * </p>
+	 * 
+	 * <p>
+	 * Thus, a build does not lock out changes to unrelated projects (e.g. an
+	 * editor being saved), and the builds of independent projects may overlap
+	 * (when the workspace permits this). However, the compiler itself is not
+	 * thread safe, and so its stages are serialised across all projects (see
+	 * <code>compilerLock</code>). Only the remainder of each build (e.g.
+	 * processing deltas, writing outputs and publishing markers) proceeds
+	 * concurrently.
+	 * </p>
+	 */
+	public ISchedulingRule getRule(int kind, Map args) {
+		IProject project = getProject();
+		ISchedulingRule rule = project;
+		try {
+			for (IProject referenced : project.getReferencedProjects()) {
+				rule = MultiRule.combine(rule, referenced);
+			}
+		} catch (CoreException e) {
+			// The references of this project are unknown (e.g. because its
+			// description cannot be read), hence fall back to the workspace.
+			return project.getWorkspace().getRoot();
+		}
+		return rule;
+	}
+
 	protected void incrementalBuild(IResourceDelta delta,
 			IProgressMonitor monitor) throws CoreException {
 		
@@ -338,7 +937,7 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 		// finally, give the whiley project a changed to recompile any whiley
 		// files that are affected the by changes. 
 		try {
-			build();
+			build(monitor);
 		} catch(CoreIOException e) {
 			throw e.payload;
 		} catch(IOException e) {
@@ -346,14 +945,79 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 		}
 	}
 
+	/**
+	 * Don't build the changes in a resource delta until the build delay has
+	 * passed. Instead, the builder remembers its last built state, such that
+	 * the changes are included in the delta of the next build. Should another
+	 * automatic build arrive before then, its changes are merged with these
+	 * and the delay begins again. Thus, a burst of changes (e.g. from saving
+	 * several files, or a refactoring) is built only once. A delta which does
+	 * not affect any source file, or the whileypath, is actioned immediately,
+	 * since there is nothing to build.
+	 * 
+	 * @param delta
+	 * @throws CoreException
+	 */
+	protected void deferBuild(IResourceDelta delta) throws CoreException {
+		if (!affectsSources(delta)) {
+			actionChangedResources(delta);
+			return;
+		}
+		rememberLastBuiltState();
+		if (deferredBuild == null) {
+			deferredBuild = new DeferredBuild();
+		}
+		// If the deferred build is already running then it is rescheduled once
+		// it has finished; otherwise, its delay begins again.
+		deferredBuild.cancel();
+		deferredBuild.schedule(buildDelay);
+	}
+
+	/**
+	 * Determine whether a resource delta includes a change to a Whiley source
+	 * file, or to the whileypath.
+	 * 
+	 * @param delta
+	 * @return
+	 */
+	private boolean affectsSources(IResourceDelta delta) {
+		final boolean[] found = { false };
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+				public boolean visit(IResourceDelta delta) {
+					IResource resource = delta.getResource();
+					if (found[0] || resource.isDerived()) {
+						return false;
+					} else if (resource instanceof IFile) {
+						found[0] = (isWhileyPath(resource) || "whiley"
+								.equals(resource.getFileExtension()))
+								&& (delta.getKind() != IResourceDelta.CHANGED || (delta
+										.getFlags() & IResourceDelta.CONTENT) != 0);
+					}
+					return true;
+				}
+			});
+		} catch (CoreException e) {
+			// deadcode
+		}
+		return found[0];
+	}
+
 	/**
 	 * Delete all entries and corresponding IFiles from all binary roots. That
 	 * is, delete all output files. An immediate consequence of this is that all
 	 * known source files are marked for recompilation. However, these files are
-	 * not actually recompiled until build() is called.
+	 * not actually recompiled until build() is called. The output files are
+	 * determined from the manifest, and hence no other files are deleted.
 	 */
 	protected void clean(IProgressMonitor monitor) throws CoreException {
-		HashSet<Path.Entry<?>> allTargets = new HashSet();
+		if (whileyProject == null) {
+			initialise();
+		}
+		if (deferredBuild != null) {
+			// Everything is rebuilt by this build anyway.
+			deferredBuild.cancel();
+		}
 		try {
 			delta.clear();
 
@@ -367,22 +1031,9 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 				}
 			}
 
-			// second, determine all target files
-			for (Build.Rule r : whileyProject.rules()) {
-				for (IFileEntry<?> source : delta) {
-					// FIXME: this needs to be corrected, otherwise cleaning
-					// will not work.
-					// allTargets.addAll(r.dependentsOf(source));
-				}
-			}
-
-			// third, delete all target files
-			for (Path.Entry<?> _e : allTargets) {
-				if(_e instanceof IFileEntry) {
-					IFileEntry<?> e = (IFileEntry<?>) _e;
-					e.getFile().delete(true, null);
-				}
-			}
+			// second, delete all files generated from them
+			deleteOutputs(manifest.all(), monitor);
+			manifest.clear();
 		} catch (CoreException e) {
 			throw e;
 		} catch (RuntimeException e) {
@@ -394,9 +1045,12 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 	}
 	
 	/**
-	 * This simply recurses the delta and actions all changes to the whiley
-	 * project. The whiley project will then decide whether or not those changes
-	 * are actually relevant.
+	 * This recurses the delta and actions all changes to the whiley project.
+	 * Only those parts of the delta which may contain source files are
+	 * visited. In particular, the output folders (which are mostly changed by
+	 * the builder itself), derived resources and anything outside of the
+	 * source folders (other than the whileypath) are skipped. Thus, the cost
+	 * of processing a delta does not depend on how much output was written.
 	 * 
 	 * @param delta
 	 * @return
@@ -404,8 +1058,18 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 	protected void actionChangedResources(IResourceDelta delta) throws CoreException {		
 		try {
 			delta.accept(new IResourceDeltaVisitor() {
+				/**
+				 * The full paths of the source and output folders. These are
+				 * recomputed if the project is reconfigured.
+				 */
+				private List<IPath> sources;
+				private List<IPath> outputs;
+
 				public boolean visit(IResourceDelta delta) throws CoreException {					
 					IResource resource = delta.getResource();
+					if (resource != null && !isRelevant(resource)) {
+						return false;
+					}
 					if (resource != null) {
 						switch(delta.getKind()) {
 							case IResourceDelta.ADDED:
@@ -416,15 +1080,14 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 								break;
 							case IResourceDelta.CHANGED:
 								if(isWhileyPath(resource)) {
-									// In this case, the ".classpath" file has
+									// In this case, the ".whileypath" file has
 									// changed. This could be as a result of a
-									// jar file being added or removed from the
-									// classpath. Basically, we don't know in
-									// what way exactly it has changed.
-									// Therefore, we must assume the worst-case
-									// and recompile *everything*.
-									initialise(); 			 
-									clean(null);
+									// jar file being added or removed, or the
+									// settings of a build rule changing. Only
+									// those modules affected by the change
+									// are recompiled.
+									reconfigure();
+									sources = null;
 								} else {									
 									changed(resource);
 								}
@@ -433,9 +1096,70 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 					}
 					return true; // visit children as well.
 				}
+
+				/**
+				 * Determine whether a resource may be, or contain, a source
+				 * file (or the whileypath). A resource within an output folder
+				 * is irrelevant, unless it also lies within a source folder
+				 * nested inside that output folder.
+				 * 
+				 * @param resource
+				 * @return
+				 */
+				private boolean isRelevant(IResource resource) {
+					if (isWhileyPath(resource)) {
+						return true;
+					}
+					if (sources == null) {
+						sources = new ArrayList<IPath>();
+						outputs = new ArrayList<IPath>();
+						for (Path.Root root : whileyProject.roots()) {
+							if (root instanceof SourceRoot) {
+								sources.add(((SourceRoot) root).getContainer()
+										.getFullPath());
+							} else if (root instanceof ContainerRoot) {
+								outputs.add(((ContainerRoot) root)
+										.getContainer().getFullPath());
+							}
+						}
+					}
+					IPath path = resource.getFullPath();
+					// Determine the innermost source folder containing this
+					// resource, noting that it may lie on the way to one.
+					int source = -1;
+					for (IPath s : sources) {
+						if (path.isPrefixOf(s)) {
+							return true;
+						} else if (s.isPrefixOf(path)) {
+							source = Math.max(source, s.segmentCount());
+						}
+					}
+					if (source < 0 || resource.isDerived()) {
+						return false;
+					}
+					for (IPath o : outputs) {
+						if (o.segmentCount() > source && o.isPrefixOf(path)) {
+							return false;
+						}
+					}
+					return true;
+				}
 			});
+			
+			// Now, bring the roots up to date with the delta. This must be
+			// done after the traversal, since removed entries are identified
+			// from the roots.
+			refreshRoots(delta);
+
+			// Finally, action any source files which were removed.
+			if (!removedModules.isEmpty()) {
+				actionRemovedModules();
+			}
 		} catch (CoreException e) {
-			e.printStackTrace();
+			Activator.getDefault().getLog().log(
+					new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+							"Unable to process changes to "
+									+ getProject().getName(), e));
 		}		
 	}
 	
@@ -447,7 +1171,9 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 	 * @param delta
 	 */
 	public void changed(IResource resource) throws CoreException {
-		System.out.println("RESOURCE CHANGED: " + resource.getFullPath());
+		if (Trace.DELTA) {
+			Trace.trace("RESOURCE CHANGED: " + resource.getFullPath());
+		}
 		if (resource instanceof IFile) {
 			// This indicates a file of some description has changed. What we do
 			// now, is to check whether or not it's a source file and, if it is,
@@ -463,13 +1189,23 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 						// entry as
 						// well, since it has clearly changed.
 						ife.refresh();
+						if (!hasChanged(ife)) {
+							// Contents are unchanged since last compiled.
+							return;
+						}
 						delta.add(ife);
+						// Finally, note that modules which depend upon it may
+						// need recompiling. This is only determined once it
+						// has been compiled.
+						changedModules.add(ife.id());
 						return;
 					}
 				}
 			}
 		} else {
-			System.out.println("IGNORED REOURCE CHANGE: " + resource.getFullPath());
+			if (Trace.DELTA) {
+				Trace.trace("IGNORED REOURCE CHANGE: " + resource.getFullPath());
+			}
 		}
 	}
 
@@ -482,14 +1218,23 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 	 * @param delta
 	 */
 	public void added(IResource resource) throws CoreException {
-		System.out.println("RESOURCE ADDED: " + resource.getFullPath());
+		if (Trace.DELTA) {
+			Trace.trace("RESOURCE ADDED: " + resource.getFullPath());
+		}
 		IPath location = resource.getLocation();
 		for (Path.Root root : whileyProject.roots()) {
 			if (root instanceof SourceRoot) {
 				SourceRoot srcRoot = (SourceRoot) root;
 				IFileEntry e = srcRoot.create(resource);
 				if (e != null) {
+					if (!hasChanged(e)) {
+						// Contents are unchanged since last compiled.
+						return;
+					}
 					delta.add(e);
+					// Any modules which import the new module must be
+					// recompiled, as they may now resolve names differently.
+					scheduleDependents(Collections.singleton(e.id()));
 					return; // done
 				}
 			}
@@ -507,79 +1252,562 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 	 * @param delta
 	 */
 	public void removed(IResource resource) throws CoreException {
-		System.out.println("RESOURCE REMOVED: " + resource.getFullPath());
-		// We could actually do better here, in some cases. For example, if a
-		// source file is removed then we only need to recompile those which
-		// depend upon it.
-		for (Path.Root srct : whileyProject.roots()) {
+		if (Trace.DELTA) {
+			Trace.trace("RESOURCE REMOVED: " + resource.getFullPath());
+		}
+		// If a source file is removed then we only need to recompile those
+		// which depend upon it. These cannot be determined until the whole
+		// resource delta has been seen, since several files may be removed
+		// together.
+		for (Path.Root root : whileyProject.roots()) {
+			if (root instanceof SourceRoot) {
+				SourceRoot srcRoot = (SourceRoot) root;
+				IFileEntry<?> ife = srcRoot.getResource(resource);
+				if (ife != null) {
+					removedModules.add(ife.id());
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delete the given generated files (where they exist) in a single
+	 * workspace operation. The roots holding them are brought up to date, so
+	 * that they are not used by the remainder of the build.
+	 * 
+	 * @param files
+	 *            --- the full paths of the files to delete.
+	 * @param monitor
+	 * @throws CoreException
+	 */
+	protected void deleteOutputs(Collection<IPath> files,
+			IProgressMonitor monitor) throws CoreException {
+		IWorkspace workspace = getProject().getWorkspace();
+		ArrayList<IResource> resources = new ArrayList<IResource>();
+		for (IPath path : files) {
+			IFile file = workspace.getRoot().getFile(path);
+			if (file.exists()) {
+				resources.add(file);
+			}
+		}
+		if (resources.isEmpty()) {
+			return;
+		}
+		if (Trace.BUILDER) {
+			Trace.trace("*** DELETING " + resources.size()
+					+ " GENERATED FILE(S)");
+		}
+		for (IResource resource : resources) {
+			for (Path.Root root : whileyProject.roots()) {
+				if (root instanceof ContainerRoot) {
+					((ContainerRoot) root).discard(resource);
+				}
+			}
+		}
+		workspace.delete(resources.toArray(new IResource[resources.size()]),
+				true, monitor);
+	}
+
+	/**
+	 * Bring the folder hierarchy of each root up to date with a given resource
+	 * delta. Only those folders affected by the delta are discarded, and any
+	 * entries marked for recompilation within them are reacquired.
+	 * 
+	 * @param resourceDelta
+	 * @throws CoreException
+	 */
+	protected void refreshRoots(IResourceDelta resourceDelta)
+			throws CoreException {
+		boolean discarded = false;
+		for (Path.Root root : whileyProject.roots()) {
+			if (root instanceof ContainerRoot) {
+				discarded |= ((ContainerRoot) root).refresh(resourceDelta);
+			}
+		}
+		if (discarded) {
 			try {
-				srct.refresh();
+				ArrayList<IFileEntry> entries = new ArrayList<IFileEntry>(delta);
+				delta.clear();
+				for (IFileEntry<?> e : entries) {
+					IFileEntry<?> ne = getSourceEntry(e.id());
+					if (ne != null) {
+						delta.add(ne);
+					}
+				}
 			} catch (CoreIOException e) {
 				throw e.payload;
 			} catch (IOException e) {
 				// deadcode
 			}
 		}
+	}
+
+	/**
+	 * Action those source files which have been removed. Specifically, those
+	 * modules which (transitively) depend upon them are marked for
+	 * recompilation. The roots must already be up to date, so that the removed
+	 * entries are forgotten.
+	 */
+	protected void actionRemovedModules() throws CoreException {
+		HashSet<Path.ID> affected = new HashSet<Path.ID>(
+				dependencyGraph.transitiveDependentsOf(removedModules));
+		for (IFileEntry<?> e : delta) {
+			affected.add(e.id());
+		}
+		HashSet<IPath> outputs = new HashSet<IPath>();
+		for (Path.ID id : removedModules) {
+			dependencyGraph.remove(id);
+			fingerprints.remove(id);
+			outputs.addAll(manifest.remove(id));
+		}
+		removedModules.clear();
+		deleteOutputs(outputs, null);
 
-		clean(null);
+		try {
+			delta.clear();
+			for (Path.ID id : affected) {
+				IFileEntry<?> e = getSourceEntry(id);
+				if (e != null) {
+					delta.add(e);
+				}
+			}
+		} catch (CoreIOException e) {
+			throw e.payload;
+		} catch (IOException e) {
+			// deadcode
+		}
+	}
+
+	/**
+	 * Mark for recompilation all modules which (transitively) depend upon any
+	 * of the given modules.
+	 * 
+	 * @param modules
+	 * @throws CoreException
+	 */
+	protected void scheduleDependents(Collection<Path.ID> modules)
+			throws CoreException {
+		try {
+			for (Path.ID id : dependencyGraph.transitiveDependentsOf(modules)) {
+				IFileEntry<?> e = getSourceEntry(id);
+				if (e != null) {
+					delta.add(e);
+				}
+			}
+		} catch (CoreIOException e) {
+			throw e.payload;
+		} catch (IOException e) {
+			// deadcode
+		}
+	}
+
+	/**
+	 * Mark for recompilation those modules which directly depend upon a changed
+	 * module whose WyIL file has actually changed. If the WyIL file of a
+	 * changed module is identical to when it was last built (e.g. because only
+	 * comments were edited), then its dependents are unaffected. Modules
+	 * scheduled here are themselves treated as changed, so that their
+	 * dependents are considered in turn once they have been compiled.
+	 * 
+	 * @param built
+	 *            --- the modules already built during this build, which are
+	 *            not rebuilt.
+	 * @throws IOException
+	 */
+	protected void scheduleChangedDependents(Set<Path.ID> built)
+			throws IOException {
+		Set<Path.ID> unchanged = unchangedModules();
+		ArrayList<Path.ID> changed = new ArrayList<Path.ID>(changedModules);
+		changedModules.clear();
+		for (Path.ID id : changed) {
+			if (unchanged.contains(id)) {
+				continue;
+			}
+			for (Path.ID dependent : dependencyGraph.dependentsOf(id)) {
+				if (!built.contains(dependent)) {
+					IFileEntry<?> e = getSourceEntry(dependent);
+					if (e != null) {
+						delta.add(e);
+						changedModules.add(dependent);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Determine those modules whose WyIL files were found to be unchanged
+	 * during the current build.
+	 * 
+	 * @return
+	 */
+	private Set<Path.ID> unchangedModules() {
+		HashSet<Path.ID> unchanged = new HashSet<Path.ID>();
+		for (List<RuleTemplate> templates : ruleTemplates.values()) {
+			for (RuleTemplate t : templates) {
+				if (t.builder.equals("wyc")) {
+					unchanged.addAll(t.outputs.unchanged());
+				}
+			}
+		}
+		return unchanged;
+	}
+
+	/**
+	 * Finish the current build of each rule whose outputs are fingerprinted.
+	 * If the build succeeded, then the outputs it generated become the
+	 * baseline for the next build. Otherwise, they are forgotten.
+	 * 
+	 * @param success
+	 */
+	private void finishOutputFingerprints(boolean success) {
+		for (List<RuleTemplate> templates : ruleTemplates.values()) {
+			for (RuleTemplate t : templates) {
+				if (t.outputs == null) {
+					continue;
+				} else if (success) {
+					t.outputs.commit();
+				} else {
+					t.outputs.discard();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check whether the contents of a source file differ from when it was last
+	 * successfully compiled. A source file which has not been compiled is
+	 * always considered changed.
+	 * 
+	 * @param entry
+	 * @return
+	 * @throws CoreException
+	 */
+	protected boolean hasChanged(IFileEntry<?> entry) throws CoreException {
+		Long fingerprint = fingerprints.get(entry.id());
+		if (fingerprint == null) {
+			return true;
+		}
+		try {
+			return fingerprint != entry.fingerprint();
+		} catch (CoreIOException e) {
+			throw e.payload;
+		} catch (IOException e) {
+			// deadcode
+			return true;
+		}
+	}
+
+	/**
+	 * Find the source file for a given module, or null if no such source file
+	 * exists in this project.
+	 * 
+	 * @param id
+	 * @return
+	 * @throws IOException
+	 */
+	protected IFileEntry<?> getSourceEntry(Path.ID id) throws IOException {
+		for (Path.Root root : whileyProject.roots()) {
+			if (root instanceof SourceRoot) {
+				Path.Entry<?> e = root.get(id, WhileyFile.ContentType);
+				if (e instanceof IFileEntry) {
+					return (IFileEntry<?>) e;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Record the dependencies of a Whiley source file which has just been
+	 * compiled. These are determined from the imports of the file, including
+	 * those which are implicit (i.e. <code>whiley.lang.*</code> and the
+	 * enclosing package), resolved against the source roots of this project.
+	 * Modules from libraries are not recorded, since they are never rebuilt.
+	 * 
+	 * @param entry
+	 * @throws IOException
+	 */
+	protected void recordDependencies(IFileEntry<?> entry) throws IOException {
+		WhileyFile wf = (WhileyFile) entry.read();
+		ArrayList<Trie> filters = new ArrayList<Trie>();
+		filters.add(Trie.fromString("whiley/lang/*"));
+		filters.add(Trie.fromString(wf.module.parent(), "*"));
+		for (WhileyFile.Declaration d : wf.declarations) {
+			if (d instanceof WhileyFile.Import) {
+				filters.add(((WhileyFile.Import) d).filter);
+			}
+		}
+		HashSet<Path.ID> resolved = new HashSet<Path.ID>();
+		for (Path.Root root : whileyProject.roots()) {
+			if (root instanceof SourceRoot) {
+				for (Trie filter : filters) {
+					resolved.addAll(root.match(Content.filter(filter,
+							WhileyFile.ContentType)));
+				}
+			}
+		}
+		dependencyGraph.record(entry.id(), filters, resolved);
 	}
 	
 	/**
 	 * Build those source files which are known to have changed (i.e. those
 	 * entries found in delta). To do this, we must identify all corresponding
 	 * targets, as well as any other dependencies.
+	 * 
+	 * @param monitor
+	 *            --- reports progress for each file and stage. If the build is
+	 *            cancelled, then whatever has been generated so far is still
+	 *            written out, and those files not known to be built remain in
+	 *            the delta for the next build.
+	 * @throws OperationCanceledException
+	 *             If the build is cancelled.
 	 */
-	public void build() throws IOException, CoreException {
-		HashSet<Path.Entry<?>> allTargets = new HashSet();
+	public void build(IProgressMonitor monitor) throws IOException,
+			CoreException {
+		if (delta.isEmpty()) {
+			// Nothing has changed since the last build, hence its results
+			// (i.e. markers, statistics and verification) still stand.
+			if (monitor != null) {
+				monitor.done();
+			}
+			return;
+		}
+		boolean success = false;
+		if (verificationJob != null) {
+			// The verification of those modules being rebuilt is superseded
+			// by this build, but that of the others continues.
+			ArrayList<Path.ID> changed = new ArrayList<Path.ID>();
+			for (IFileEntry<?> e : delta) {
+				changed.add(e.id());
+			}
+			verificationJob.supersede(changed);
+		}
+		SubMonitor subMonitor = SubMonitor.convert(monitor, "Building "
+				+ getProject().getName(), delta.size() * stagesPerModule());
+		progress = subMonitor;
+		errors.clear();
+		failedModules.clear();
+		markers.reset(getProject(), Activator.WYCLIPSE_MARKER_ID);
+		BuildStatistics statistics = BuildStatistics.get(getProject());
+		statistics.reset();
+		long start = System.nanoTime();
 		try {
-			System.out
-					.println("BUILDING: " + delta.size() + " source file(s).");
+			HashSet<Path.ID> built = new HashSet<Path.ID>();
+			while (!delta.isEmpty()) {
+				checkCanceled();
+				subMonitor.setWorkRemaining(delta.size() * stagesPerModule());
+				if (Trace.BUILDER) {
+					Trace.trace("BUILDING: " + delta.size()
+							+ " source file(s).");
+				}
 
-			// First, remove all markers from those entries
-			for (Path.Entry<?> _e : delta) {
-				IFileEntry e = (IFileEntry) _e;
-				e.getFile().deleteMarkers(IMarker.PROBLEM, true,
-						IResource.DEPTH_INFINITE);
-			}
-			
-			whileyProject.build((ArrayList) delta);
+				// Modules open in an editor (and those they depend upon) are
+				// built first, and the remainder in the next round.
+				LinkedHashSet<IFileEntry> deferred = prioritise();
 
-		} catch (SyntaxError e) {
-			// FIXME: this is a hack because syntax error doesn't retain the
-			// correct information (i.e. it should store an Path.Entry, not a
-			// String filename).
-			for (Path.Root root : whileyProject.roots()) {
-				if (root instanceof SourceRoot) {
-					SourceRoot srcRoot = (SourceRoot) root;
-					for (Object entry : srcRoot.get()) {
-						IFile file = ((IFileEntry) entry).getFile();
-						if (file.getLocation().toFile().getAbsolutePath()
-								.equals(e.filename())) {
-							// hit
-							highlightSyntaxError(file, e);
-							return;
+				// First, reset the markers of those entries. Verification
+				// markers are left for the verification job to replace.
+				for (Path.Entry<?> _e : delta) {
+					IFileEntry e = (IFileEntry) _e;
+					markers.reset(e.getFile(), Activator.WYCLIPSE_MARKER_ID);
+				}
+
+				try {
+					buildPhases();
+				} finally {
+					// Write out whatever was generated, even if the build
+					// failed part way through.
+					flush();
+				}
+
+				// Record the dependencies of everything just compiled, so that
+				// subsequent changes can be propagated to their dependents.
+				// Those which failed are not fingerprinted, so that they are
+				// always compiled again.
+				for (IFileEntry<?> e : delta) {
+					if (e.contentType() == WhileyFile.ContentType) {
+						try {
+							recordDependencies(e);
+						} catch (SyntaxError se) {
+							// This module cannot be parsed, hence its
+							// dependencies are unknown.
+						}
+						if (failedModules.contains(e.id())) {
+							fingerprints.remove(e.id());
+						} else {
+							fingerprints.put(e.id(), e.fingerprint());
 						}
 					}
+					built.add(e.id());
 				}
+				if (!deferred.isEmpty()) {
+					// Publish the markers of those modules just built now,
+					// rather than waiting for the remainder.
+					publishMarkers(delta);
+				}
+				delta.clear();
+				delta.addAll(deferred);
+
+				// Finally, schedule those modules affected by what was just
+				// compiled (if any).
+				scheduleChangedDependents(built);
 			}
-			// this is temporary hack, for now.
-			throw new RuntimeException("Unable to assign syntax error");
+			success = failedModules.isEmpty();
+		} catch (SyntaxError e) {
+			// This error could not be attributed to any particular module
+			// being built, hence it is highlighted by its location.
+			errors.add(new Pair<Path.Entry<?>, SyntaxError>(null, e));
 		} catch (RuntimeException e) {
 			throw e;
 		} catch (Exception e) {
 			// hmmm, obviously I don't like doing this probably the best way
 			// around it is to not extend abstract root.
+		} finally {
+			progress = new NullProgressMonitor();
+			if (monitor != null) {
+				monitor.done();
+			}
+			for (Pair<Path.Entry<?>, SyntaxError> p : errors) {
+				highlightSyntaxError(p.first(), p.second());
+			}
+			markers.apply(getProject().getWorkspace(), null);
+			finishOutputFingerprints(success);
+			statistics.finished(System.nanoTime() - start);
+			statistics.save();
+			if (verificationJob != null) {
+				verificationJob.reschedule();
+			}
 		}
+	}
 
-		delta.clear();
+	/**
+	 * Restrict the delta to those modules whose source files are open in an
+	 * editor, along with those modules in the delta which they depend upon
+	 * (directly or indirectly). The latter must be built first, otherwise the
+	 * open modules would be compiled against their old interfaces. If
+	 * there's no such module, or the delta consists only of them, then the
+	 * delta is left alone.
+	 * 
+	 * @return Those modules removed from the delta.
+	 * @throws IOException
+	 */
+	private LinkedHashSet<IFileEntry> prioritise() throws IOException {
+		LinkedHashSet<IFileEntry> deferred = new LinkedHashSet<IFileEntry>();
+		if (OpenFiles.isEmpty()) {
+			return deferred;
+		}
+		HashMap<Path.ID, IFileEntry> entries = new HashMap<Path.ID, IFileEntry>();
+		ArrayList<Path.ID> worklist = new ArrayList<Path.ID>();
+		for (IFileEntry<?> e : delta) {
+			entries.put(e.id(), e);
+			if (OpenFiles.isOpen(e.getFile())) {
+				try {
+					// The imports of an open module have likely changed.
+					recordDependencies(e);
+				} catch (SyntaxError se) {
+					// The module will fail when it's built anyway.
+				}
+				worklist.add(e.id());
+			}
+		}
+		HashSet<Path.ID> priority = new HashSet<Path.ID>();
+		while (!worklist.isEmpty()) {
+			Path.ID id = worklist.remove(worklist.size() - 1);
+			if (priority.add(id)) {
+				for (Path.ID dep : dependencyGraph.dependenciesOf(id)) {
+					if (entries.containsKey(dep)) {
+						worklist.add(dep);
+					}
+				}
+			}
+		}
+		if (priority.isEmpty() || priority.size() == delta.size()) {
+			return deferred;
+		}
+		for (IFileEntry<?> e : delta) {
+			if (!priority.contains(e.id())) {
+				deferred.add(e);
+			}
+		}
+		delta.removeAll(deferred);
+		if (Trace.BUILDER) {
+			Trace.trace("*** PRIORITISING " + delta.size() + " OF "
+					+ (delta.size() + deferred.size()) + " SOURCE FILE(S)");
+		}
+		return deferred;
+	}
+
+	/**
+	 * Publish the markers of some source files immediately, including those
+	 * for the errors reported against them so far.
+	 * 
+	 * @param files
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	private void publishMarkers(Collection<IFileEntry> files)
+			throws IOException, CoreException {
+		Pair<Path.Entry<?>, SyntaxError> p;
+		while ((p = errors.poll()) != null) {
+			highlightSyntaxError(p.first(), p.second());
+		}
+		ArrayList<IFile> resources = new ArrayList<IFile>();
+		for (IFileEntry<?> e : files) {
+			resources.add(e.getFile());
+		}
+		markers.apply(getProject().getWorkspace(), resources, null);
+	}
+
+	/**
+	 * Determine the most stages through which a single source file passes.
+	 * This is used to estimate the amount of work involved in a build.
+	 * 
+	 * @return
+	 */
+	private int stagesPerModule() {
+		int stages = 1;
+		for (List<RuleTemplate> templates : ruleTemplates.values()) {
+			stages = Math.max(stages, templates.size());
+		}
+		return stages;
+	}
+
+	/**
+	 * Check whether the build currently in progress has been cancelled, or is
+	 * a deferred build which is blocking some other operation.
+	 * 
+	 * @throws OperationCanceledException
+	 *             If it has.
+	 */
+	private void checkCanceled() {
+		if (progress.isCanceled()
+				|| (deferredBuild != null && deferredBuild.isInterrupted())) {
+			throw new OperationCanceledException();
+		}
 	}
 
 	/**
 	 * Build all known source files, regardless of whether they have changed or
 	 * not.
 	 */
-	public void buildAll() throws IOException, CoreException {
+	public void buildAll(IProgressMonitor monitor) throws IOException,
+			CoreException {
 		delta.clear();
+		dependencyGraph.clear();
+		fingerprints.clear();
+		changedModules.clear();
+		if (verificationJob != null) {
+			verificationJob.clear();
+		}
+		for (List<RuleTemplate> templates : ruleTemplates.values()) {
+			for (RuleTemplate t : templates) {
+				if (t.outputs != null) {
+					t.outputs.clear();
+				}
+			}
+		}
 		for (Path.Root root : whileyProject.roots()) {
 			if (root instanceof SourceRoot) {
 				SourceRoot srcRoot = (SourceRoot) root;
@@ -588,18 +1816,410 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 				}
 			}
 		}
-		build();
+		build(monitor);
+	}
+
+	/**
+	 * Build those source files which have changed since the builder state was
+	 * saved in a previous session. This is used when no resource delta is
+	 * available, and avoids rebuilding the entire project. Source files which
+	 * have changed, been added or been removed are identified by comparing
+	 * against the saved fingerprints, and then actioned as for an incremental
+	 * build.
+	 */
+	protected void buildChangedSinceSave(IProgressMonitor monitor)
+			throws IOException, CoreException {
+		HashSet<Path.ID> removed = new HashSet<Path.ID>(fingerprints.keySet());
+		for (Path.Root root : whileyProject.roots()) {
+			if (root instanceof SourceRoot) {
+				SourceRoot srcRoot = (SourceRoot) root;
+				// No resource delta is available, hence every file must be
+				// examined.
+				srcRoot.synchronise();
+				for (Object o : srcRoot.get()) {
+					IFileEntry<?> e = (IFileEntry<?>) o;
+					removed.remove(e.id());
+					if (hasChanged(e)) {
+						delta.add(e);
+						scheduleDependents(Collections.singleton(e.id()));
+					}
+				}
+			}
+		}
+		if (!removed.isEmpty()) {
+			removedModules.addAll(removed);
+			actionRemovedModules();
+		}
+		build(monitor);
+	}
+
+	/**
+	 * Build the delta in two phases. The first checks each module, and the
+	 * second generates code from those which passed and verifies them. The
+	 * markers for any errors found by the first phase are published before
+	 * the second begins, since it can take considerably longer.
+	 * 
+	 * @throws Exception
+	 */
+	protected void buildPhases() throws Exception {
+		Set<Path.Entry<?>> checked = applyRules(whileyProject, true,
+				(Collection) delta);
+		publishMarkers(delta);
+		checkCanceled();
+		checked.addAll((Collection) delta);
+		applyRules(whileyProject, false, checked);
+	}
+
+	/**
+	 * Apply those rules of a project in a given phase to some files, and then
+	 * to the files they generate, until nothing more is generated. This
+	 * mirrors <code>StdProject.build()</code>, except that only some of the
+	 * rules are applied.
+	 * 
+	 * @param project
+	 * @param check
+	 *            --- whether to apply the rules of the check phase, or those
+	 *            of the generation phase.
+	 * @param files
+	 * @return All files generated.
+	 * @throws IOException
+	 */
+	private static Set<Path.Entry<?>> applyRules(StdProject project,
+			boolean check, Collection<? extends Path.Entry<?>> files)
+			throws IOException {
+		HashSet<Path.Entry<?>> generated = new HashSet<Path.Entry<?>>();
+		Collection<? extends Path.Entry<?>> current = files;
+		while (!current.isEmpty()) {
+			HashSet<Path.Entry<?>> next = new HashSet<Path.Entry<?>>();
+			for (Build.Rule rule : project.rules()) {
+				if (isCheckPhase(rule) == check) {
+					next.addAll(rule.apply(current));
+				}
+			}
+			generated.addAll(next);
+			current = next;
+		}
+		return generated;
+	}
+
+	/**
+	 * Determine whether a rule belongs to the check phase of a build. That is
+	 * the front end, which parses and checks modules (e.g. for type errors)
+	 * and produces their WyIL representation.
+	 * 
+	 * @param rule
+	 * @return
+	 */
+	private static boolean isCheckPhase(Build.Rule rule) {
+		return rule instanceof StageRule
+				&& ((StageRule) rule).stage.equals("wyc");
 	}
 
+	/**
+	 * A build rule which records the stage it belongs to (i.e. the ID of its
+	 * builder), such that the rules of a project can be applied in phases.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class StageRule extends StdBuildRule {
+		public final String stage;
+
+		public StageRule(String stage, Builder builder, Path.Root source,
+				Content.Filter<?> includes, Path.Root target) {
+			super(builder, source, includes, null, target);
+			this.stage = stage;
+		}
+	}
+
+	/**
+	 * Write out any generated files held in output containers. Roots which are
+	 * not backed by the workspace are not flushed, since their contents are
+	 * only needed in memory.
+	 * 
+	 * @throws IOException
+	 */
+	protected void flush() throws IOException {
+		for (Path.Root root : whileyProject.roots()) {
+			if (root instanceof ContainerRoot) {
+				root.flush();
+			}
+		}
+	}
+
+	/**
+	 * Highlight a syntax error on the source file it arose from. A syntax
+	 * error identifies its file only by location, which is looked up in the
+	 * location index of each source root. Failing that, the workspace is asked
+	 * for the file at that location. An error which cannot be attributed to
+	 * any file is highlighted on the project itself, rather than being lost.
+	 * 
+	 * @param e
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	protected void highlightSyntaxError(SyntaxError e) throws IOException,
+			CoreException {
+		String location = e.filename();
+		if (location != null) {
+			for (Path.Root root : whileyProject.roots()) {
+				if (root instanceof SourceRoot) {
+					IFileEntry<?> entry = ((SourceRoot) root)
+							.getLocation(location);
+					if (entry != null) {
+						highlightSyntaxError(entry.getFile(), e);
+						return;
+					}
+				}
+			}
+			IFile file = getProject().getWorkspace().getRoot()
+					.getFileForLocation(new org.eclipse.core.runtime.Path(location));
+			if (file != null && file.exists()) {
+				highlightSyntaxError(file, e);
+				return;
+			}
+		}
+		Trace.warning("Unable to assign syntax error: " + location);
+		highlightSyntaxError(getProject(), e);
+	}
+
+	/**
+	 * Highlight a syntax error reported against a given entry. If the entry
+	 * corresponds to a workspace file, then the error is highlighted on that
+	 * directly. Otherwise, it is attributed by location as above.
+	 * 
+	 * @param entry
+	 * @param e
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	protected void highlightSyntaxError(Path.Entry<?> entry, SyntaxError e)
+			throws IOException, CoreException {
+		if (entry instanceof IFileEntry) {
+			highlightSyntaxError(((IFileEntry<?>) entry).getFile(), e);
+		} else {
+			highlightSyntaxError(e);
+		}
+	}
+
+	/**
+	 * Highlight a syntax error on a given resource. The marker is not created
+	 * immediately, but once the build in progress has finished.
+	 * 
+	 * @param resource
+	 * @param err
+	 * @throws CoreException
+	 */
 	protected void highlightSyntaxError(IResource resource, SyntaxError err)
 			throws CoreException {
-		IMarker m = resource.createMarker(Activator.WYCLIPSE_MARKER_ID);
-		m.setAttribute(IMarker.CHAR_START, err.start());
-		m.setAttribute(IMarker.CHAR_END, err.end() + 1);
-		m.setAttribute(IMarker.MESSAGE, err.msg());
-		m.setAttribute(IMarker.LOCATION, "Whiley File");
-		m.setAttribute(IMarker.PRIORITY, IMarker.PRIORITY_HIGH);
-		m.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_ERROR);
+		markers.add(resource, Activator.WYCLIPSE_MARKER_ID, err);
+	}
+
+	// =====================================================================
+	// Saved State
+	// =====================================================================
+
+	/**
+	 * Determine the file to which the statistics of the last build (or
+	 * verification) of a given project are written. This resides in the
+	 * plugin's state location, next to the saved state of the project.
+	 * 
+	 * @param project
+	 * @param kind
+	 *            --- the kind of statistics (see <code>BuildStatistics</code>).
+	 * @return
+	 */
+	public static File getStatisticsFile(IProject project, String kind) {
+		return Activator.getDefault().getStateLocation()
+				.append(project.getName() + "." + kind + ".json").toFile();
+	}
+
+	/**
+	 * Determine the file in which the builder state for a given project is
+	 * saved. This resides in the plugin's state location.
+	 * 
+	 * @param project
+	 * @return
+	 */
+	public static File getStateFile(IProject project) {
+		return Activator.getDefault().getStateLocation()
+				.append(project.getName() + ".state").toFile();
+	}
+
+	/**
+	 * Save the state of this builder, so that it can be restored in a later
+	 * session. This consists of the manifest of generated files, the
+	 * fingerprint and dependencies of each source file, those modules still
+	 * waiting to be built (e.g. because the last build was cancelled), along
+	 * with the WyIL files held in virtual roots (since these are needed to
+	 * compile against modules which aren't rebuilt).
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void saveState(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(STATE_VERSION);
+
+			// The manifest is written first, since it concerns files in the
+			// workspace and is restored regardless of the whileypath.
+			manifest.write(out);
+			out.writeLong(getWhileyPathStamp());
+
+			// First, write the fingerprints and dependencies of each module
+			out.writeInt(fingerprints.size());
+			for (Map.Entry<Path.ID, Long> e : fingerprints.entrySet()) {
+				Path.ID module = e.getKey();
+				out.writeUTF(module.toString());
+				out.writeLong(e.getValue());
+				Set<Trie> filters = dependencyGraph.importsOf(module);
+				out.writeInt(filters.size());
+				for (Trie filter : filters) {
+					out.writeUTF(filter.toString());
+				}
+				Set<Path.ID> deps = dependencyGraph.dependenciesOf(module);
+				out.writeInt(deps.size());
+				for (Path.ID dep : deps) {
+					out.writeUTF(dep.toString());
+				}
+			}
+
+			// Second, write the modules waiting to be built, along with those
+			// whose dependents have yet to be scheduled.
+			out.writeInt(delta.size());
+			for (IFileEntry<?> e : delta) {
+				out.writeUTF(e.id().toString());
+			}
+			out.writeInt(changedModules.size());
+			for (Path.ID module : changedModules) {
+				out.writeUTF(module.toString());
+			}
+
+			// Third, write the WyIL files held in virtual roots. Roots are
+			// identified by their position, which is determined by the
+			// whileypath.
+			List<Path.Root> roots = whileyProject.roots();
+			for (int i = 0; i != roots.size(); ++i) {
+				Path.Root root = roots.get(i);
+				if (root instanceof VirtualRoot) {
+					List<Path.Entry<WyilFile>> entries = root.get(Content
+							.filter("**", WyilFile.ContentType));
+					out.writeInt(i);
+					out.writeInt(entries.size());
+					for (Path.Entry<WyilFile> e : entries) {
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						WyilFile.ContentType.write(bytes, e.read());
+						out.writeUTF(e.id().toString());
+						out.writeInt(bytes.size());
+						bytes.writeTo(out);
+					}
+				}
+			}
+			out.writeInt(-1);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Restore the state of this builder from a previous session. The state is
+	 * only restored if it was saved against the same whileypath; otherwise, it
+	 * is ignored.
+	 * 
+	 * @param file
+	 * @return True if the state was restored.
+	 * @throws IOException
+	 *             If the saved state is malformed. In this case, the state of
+	 *             this builder may be partially restored, and must be
+	 *             discarded.
+	 */
+	protected boolean loadState(File file) throws IOException {
+		if (!file.exists()) {
+			return false;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != STATE_VERSION) {
+				return false;
+			}
+			manifest.read(in);
+			if (in.readLong() != getWhileyPathStamp()) {
+				return false;
+			}
+
+			// First, read the fingerprints and dependencies of each module
+			int nmodules = in.readInt();
+			for (int i = 0; i != nmodules; ++i) {
+				Path.ID module = Trie.fromString(in.readUTF());
+				fingerprints.put(module, in.readLong());
+				ArrayList<Trie> filters = new ArrayList<Trie>();
+				int nfilters = in.readInt();
+				for (int j = 0; j != nfilters; ++j) {
+					filters.add(Trie.fromString(in.readUTF()));
+				}
+				ArrayList<Path.ID> deps = new ArrayList<Path.ID>();
+				int ndeps = in.readInt();
+				for (int j = 0; j != ndeps; ++j) {
+					deps.add(Trie.fromString(in.readUTF()));
+				}
+				dependencyGraph.record(module, filters, deps);
+			}
+
+			// Second, read the modules waiting to be built. Any whose source
+			// file no longer exists is dropped, since its removal is detected
+			// by the next build.
+			int npending = in.readInt();
+			for (int i = 0; i != npending; ++i) {
+				IFileEntry<?> e = getSourceEntry(Trie.fromString(in.readUTF()));
+				if (e != null) {
+					delta.add(e);
+				}
+			}
+			int nchanged = in.readInt();
+			for (int i = 0; i != nchanged; ++i) {
+				changedModules.add(Trie.fromString(in.readUTF()));
+			}
+
+			// Third, read the WyIL files held in virtual roots
+			List<Path.Root> roots = whileyProject.roots();
+			int index;
+			while ((index = in.readInt()) != -1) {
+				if (index >= roots.size()
+						|| !(roots.get(index) instanceof VirtualRoot)) {
+					throw new IOException("invalid virtual root: " + index);
+				}
+				Path.Root root = roots.get(index);
+				int nentries = in.readInt();
+				for (int j = 0; j != nentries; ++j) {
+					Path.ID id = Trie.fromString(in.readUTF());
+					byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					Path.Entry<WyilFile> e = root.create(id,
+							WyilFile.ContentType);
+					e.write(WyilFile.ContentType.read(e,
+							new ByteArrayInputStream(bytes)));
+				}
+			}
+			return true;
+		} catch (RuntimeException e) {
+			// Indicates the saved WyIL could not be decoded
+			throw new IOException(e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Get the modification stamp of the whileypath. This is used to check that
+	 * saved state was produced with the current project configuration.
+	 * 
+	 * @return
+	 */
+	private long getWhileyPathStamp() {
+		return getProject().getFile(".whileypath").getModificationStamp();
 	}
 
 	public class SourceRoot<T> extends ContainerRoot {
@@ -617,6 +2237,352 @@ public class WhileyProjectBuilder extends IncrementalProjectBuilder {
 		}		
 	}
 	
+	/**
+	 * Records the parameters of a build rule, such that the settings of each
+	 * source folder can be compared when the project is reconfigured. The
+	 * fingerprints of the rule's outputs are recorded here as well. Only the
+	 * outputs of the front end and the WyAL builder are
+	 * fingerprinted, since only these feed further rules.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class RuleTemplate {
+		public final String builder;
+		public final Path.Root source;
+		public final Content.Filter<?> includes;
+		public final Path.Root target;
+		public final OutputFingerprints outputs;
+
+		public RuleTemplate(String builder, Path.Root source,
+				Content.Filter<?> includes, Path.Root target) {
+			this.builder = builder;
+			this.source = source;
+			this.includes = includes;
+			this.target = target;
+			if (builder.equals("wyc") || builder.equals("wyal")) {
+				this.outputs = new OutputFingerprints();
+			} else {
+				this.outputs = null;
+			}
+		}
+	}
+
+	/**
+	 * A builder which withholds those generated files which are unchanged
+	 * since the last successful build. Since these are not passed on to
+	 * further rules, rules further down the chain are not applied to them. For
+	 * example, if editing a comment produces an identical WyIL file then it is
+	 * neither verified nor compiled to Java bytecode again.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class CutoffBuilder implements Builder {
+		private final Builder builder;
+		private final OutputFingerprints outputs;
+
+		public CutoffBuilder(Builder builder, OutputFingerprints outputs) {
+			this.builder = builder;
+			this.outputs = outputs;
+		}
+
+		public Build.Project project() {
+			return builder.project();
+		}
+
+		public Set<Path.Entry<?>> build(
+				Collection<Pair<Path.Entry<?>, Path.Root>> delta)
+				throws IOException {
+			HashSet<Path.Entry<?>> generated = new HashSet<Path.Entry<?>>();
+			for (Path.Entry<?> e : builder.build(delta)) {
+				if (outputs.hasChanged(e)) {
+					generated.add(e);
+				}
+			}
+			return generated;
+		}
+	}
+
+	/**
+	 * A builder which records the files generated by a given builder in the
+	 * manifest.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class RecordingBuilder implements Builder {
+		private final Builder builder;
+		private final OutputManifest manifest;
+
+		public RecordingBuilder(Builder builder, OutputManifest manifest) {
+			this.builder = builder;
+			this.manifest = manifest;
+		}
+
+		public Build.Project project() {
+			return builder.project();
+		}
+
+		public Set<Path.Entry<?>> build(
+				Collection<Pair<Path.Entry<?>, Path.Root>> delta)
+				throws IOException {
+			Set<Path.Entry<?>> generated = builder.build(delta);
+			for (Path.Entry<?> e : generated) {
+				manifest.record(e);
+			}
+			return generated;
+		}
+	}
+
+	/**
+	 * A builder which prevents a given builder from running concurrently with
+	 * any other serialised builder, including those of other projects.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private static final class SerialBuilder implements Builder {
+		private final Builder builder;
+
+		public SerialBuilder(Builder builder) {
+			this.builder = builder;
+		}
+
+		public Build.Project project() {
+			return builder.project();
+		}
+
+		public Set<Path.Entry<?>> build(
+				Collection<Pair<Path.Entry<?>, Path.Root>> delta)
+				throws IOException {
+			synchronized (compilerLock) {
+				return builder.build(delta);
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * A builder which reports progress to the monitor of the current build,
+	 * and checks for cancellation. Except for the front end, which must
+	 * compile all modules together since they may depend upon each other,
+	 * files are passed to the underlying builder one at a time. This allows
+	 * the build to be cancelled between files, without leaving any file
+	 * partially generated.
+	 * </p>
+	 * 
+	 * <p>
+	 * The time spent in the underlying builder is recorded in the statistics
+	 * of the build. Since the front end compiles all modules together, its
+	 * time cannot be attributed to individual modules. Instead, the time of
+	 * each transform in its pipeline is recorded for each module.
+	 * </p>
+	 * 
+	 * <p>
+	 * A file which fails is recorded as such, and set aside whilst the
+	 * remaining files continue to be built. For the front end, this means the
+	 * remaining files are compiled together again. Modules which depend upon
+	 * a failed module will then typically fail themselves, whilst those
+	 * independent of it are compiled as normal.
+	 * </p>
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private final class MonitoredBuilder implements Builder {
+		private final Builder builder;
+		private final String stage;
+
+		public MonitoredBuilder(Builder builder, String stage) {
+			this.builder = builder;
+			this.stage = stage;
+		}
+
+		public Build.Project project() {
+			return builder.project();
+		}
+
+		public Set<Path.Entry<?>> build(
+				Collection<Pair<Path.Entry<?>, Path.Root>> delta)
+				throws IOException {
+			if (stage.equals("wyc")) {
+				checkCanceled();
+				progress.subTask(stage + ": " + delta.size() + " file(s)");
+				long start = System.nanoTime();
+				Set<Path.Entry<?>> generated = buildIsolated(new ArrayList<Pair<Path.Entry<?>, Path.Root>>(
+						delta));
+				BuildStatistics.get(getProject()).record(stage, null,
+						System.nanoTime() - start);
+				progress.worked(delta.size());
+				return generated;
+			}
+			HashSet<Path.Entry<?>> generated = new HashSet<Path.Entry<?>>();
+			for (Pair<Path.Entry<?>, Path.Root> p : delta) {
+				checkCanceled();
+				progress.subTask(stage + ": " + p.first().id());
+				long start = System.nanoTime();
+				try {
+					generated.addAll(builder.build(Collections.singleton(p)));
+				} catch (SyntaxError e) {
+					failed(p.first(), e);
+				} finally {
+					BuildStatistics.get(getProject()).record(stage,
+							p.first().id(), System.nanoTime() - start);
+				}
+				progress.worked(1);
+			}
+			return generated;
+		}
+
+		/**
+		 * Build a batch of files together, setting aside each file which
+		 * fails and building the remainder again.
+		 * 
+		 * @param batch
+		 * @return
+		 * @throws IOException
+		 * @throws SyntaxError
+		 *             If an error arises which cannot be attributed to any
+		 *             file in the batch.
+		 */
+		private Set<Path.Entry<?>> buildIsolated(
+				List<Pair<Path.Entry<?>, Path.Root>> batch) throws IOException {
+			while (!batch.isEmpty()) {
+				try {
+					return builder.build(batch);
+				} catch (SyntaxError e) {
+					int index = indexOf(batch, e);
+					if (index < 0) {
+						throw e;
+					}
+					failed(batch.remove(index).first(), e);
+					checkCanceled();
+				}
+			}
+			return Collections.emptySet();
+		}
+
+		/**
+		 * Determine which file of a batch an error was reported against, or -1
+		 * if none of them.
+		 * 
+		 * @param batch
+		 * @param e
+		 * @return
+		 */
+		private int indexOf(List<Pair<Path.Entry<?>, Path.Root>> batch,
+				SyntaxError e) {
+			for (int i = 0; i != batch.size(); ++i) {
+				Path.Entry<?> entry = batch.get(i).first();
+				String location = entry.location();
+				if (location != null && location.equals(e.filename())) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private void failed(Path.Entry<?> entry, SyntaxError e) {
+			if (Trace.BUILDER) {
+				Trace.trace("*** FAILED: " + entry.id() + " (" + e.msg()
+						+ ")");
+			}
+			errors.add(new Pair<Path.Entry<?>, SyntaxError>(entry, e));
+			failedModules.add(entry.id());
+		}
+	}
+
+	/**
+	 * <p>
+	 * Triggers an incremental build of the project, once changes have been
+	 * deferred by automatic builds. Since the changes were not consumed by
+	 * those builds, the builder receives all of them together in the usual
+	 * way. This runs under the workspace build rule, as required for building
+	 * a project, and belongs to the family of automatic builds.
+	 * </p>
+	 * 
+	 * <p>
+	 * Whilst this is running, any operation which is blocked by it (e.g. an
+	 * editor being saved) interrupts it, as for an automatic build. Those
+	 * files which were not built remain in the delta, and are built by the
+	 * subsequent build.
+	 * </p>
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private final class DeferredBuild extends WorkspaceJob {
+
+		public DeferredBuild() {
+			super("Building " + getProject().getName());
+			setPriority(Job.BUILD);
+			setRule(getProject().getWorkspace().getRuleFactory().buildRule());
+		}
+
+		public boolean belongsTo(Object family) {
+			return family == ResourcesPlugin.FAMILY_AUTO_BUILD;
+		}
+
+		public IStatus runInWorkspace(IProgressMonitor monitor)
+				throws CoreException {
+			IProject project = getProject();
+			if (!project.isAccessible()) {
+				// The project has been closed or deleted in the meantime.
+				return Status.OK_STATUS;
+			}
+			try {
+				project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD,
+						Activator.WYCLIPSE_BUILDER_ID, null, monitor);
+				return Status.OK_STATUS;
+			} catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			}
+		}
+
+		/**
+		 * Determine whether this job is running the build in progress, and is
+		 * blocking some other operation.
+		 * 
+		 * @return
+		 */
+		public boolean isInterrupted() {
+			return getState() == Job.RUNNING && isBlocking();
+		}
+	}
+
+	/**
+	 * A builder which submits WyAL files to the verification job, rather than
+	 * verifying them directly. Nothing is generated, since the verifier's
+	 * outputs are not used by any other rule.
+	 * 
+	 * @author David J. Pearce
+	 * 
+	 */
+	private final class VerificationSubmitter implements Builder {
+		private final Build.Project project;
+
+		public VerificationSubmitter(Build.Project project) {
+			this.project = project;
+		}
+
+		public Build.Project project() {
+			return project;
+		}
+
+		public Set<Path.Entry<?>> build(
+				Collection<Pair<Path.Entry<?>, Path.Root>> delta)
+				throws IOException {
+			for (Pair<Path.Entry<?>, Path.Root> p : delta) {
+				Path.Entry<?> e = p.first();
+				IFileEntry<?> source = getSourceEntry(e.id());
+				verificationJob.submit(e.id(), (WyalFile) e.read(),
+						source != null ? source.getFile() : null);
+			}
+			return Collections.emptySet();
+		}
+	}
+
 	private static boolean isWhileyPath(IResource resource) {
 		return resource instanceof IFile && resource.getName().equals(".whileypath");
 	}	
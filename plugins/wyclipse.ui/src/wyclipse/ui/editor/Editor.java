@@ -25,15 +25,43 @@
 
 package wyclipse.ui.editor;
 
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.editors.text.TextEditor;
 
+import wyclipse.core.builder.OpenFiles;
+
 public class Editor extends TextEditor {
+	/**
+	 * The file being edited, or null if the input is not a file in the
+	 * workspace. This is registered as open, so that the builder builds it
+	 * before any others.
+	 */
+	private IFile file;
+	
 	public Editor() {
 		super();
 		setSourceViewerConfiguration(new Configuration());
 		setDocumentProvider(new DocumentProvider());		
 	}
+	
+	protected void doSetInput(IEditorInput input) throws CoreException {
+		super.doSetInput(input);
+		if (file != null) {
+			OpenFiles.close(file);
+		}
+		file = input == null ? null : (IFile) input.getAdapter(IFile.class);
+		if (file != null) {
+			OpenFiles.open(file);
+		}
+	}
+	
 	public void dispose() {
+		if (file != null) {
+			OpenFiles.close(file);
+			file = null;
+		}
 		super.dispose();
 	}	
 }
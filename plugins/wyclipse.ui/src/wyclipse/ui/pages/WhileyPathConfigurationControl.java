@@ -47,6 +47,7 @@ public class WhileyPathConfigurationControl {
 	private Button defaultOutputFolderBrowseButton;
 	private Button enableVerificationButton;
 	private Button enableRuntimeAssertionsButton;
+	private Button enableParallelVerificationButton;
 	
 	public WhileyPathConfigurationControl(Shell shell,
 			VirtualProject project, WhileyPath whileypath) {
@@ -80,6 +81,7 @@ public class WhileyPathConfigurationControl {
 		}
 		enableVerificationButton.setSelection(whileypath.getEnableVerification());
 		enableRuntimeAssertionsButton.setSelection(whileypath.getEnableRuntimeAssertions());
+		enableParallelVerificationButton.setSelection(whileypath.getEnableParallelVerification());
 	}
 	
 	public Composite create(Composite parent) {				
@@ -142,6 +144,8 @@ public class WhileyPathConfigurationControl {
 				"Enable Verification", 3);
 		enableRuntimeAssertionsButton = WyclipseUI.createCheckBox(settings,
 				"Enable Runtime Assertions", 3);
+		enableParallelVerificationButton = WyclipseUI.createCheckBox(settings,
+				"Enable Parallel Verification", 3);
 		
 		defaultOutputFolderLabel = WyclipseUI.createLabel(settings, "Output Folder:", 1);		
 		defaultOutputFolderText = WyclipseUI.createText(settings, "", 1);
@@ -166,8 +170,15 @@ public class WhileyPathConfigurationControl {
 			}
 		});	
 		
+		enableParallelVerificationButton.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				handleEnableParallelVerification();
+			}
+		});	
+		
 		enableVerificationButton.setSelection(whileypath.getEnableVerification());
 		enableRuntimeAssertionsButton.setSelection(whileypath.getEnableRuntimeAssertions());
+		enableParallelVerificationButton.setSelection(whileypath.getEnableParallelVerification());
 		
 		IPath defaultOutputFolder = whileypath.getDefaultOutputFolder();
 		if(defaultOutputFolder == null) {
@@ -368,6 +379,15 @@ public class WhileyPathConfigurationControl {
 				.getSelection());
 	}
 	
+	/**
+	 * This function is called when the global enable parallel verification toggle is
+	 * toggled.
+	 */
+	protected void handleEnableParallelVerification() {
+		whileypath.setEnableParallelVerification(enableParallelVerificationButton
+				.getSelection());
+	}
+	
 	// ======================================================================
 	// Helpers
 	// ======================================================================
@@ -0,0 +1,170 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyclipse.ui.views;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.jface.action.Action;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Tree;
+import org.eclipse.swt.widgets.TreeColumn;
+import org.eclipse.swt.widgets.TreeItem;
+import org.eclipse.ui.part.ViewPart;
+
+import wyclipse.core.builder.BuildStatistics;
+import wyfs.lang.Path;
+
+/**
+ * Displays the time spent in each stage of the last build of each Whiley
+ * project, both in total and for each module. The view is refreshed after
+ * every build, and can also be refreshed manually (e.g. once verification has
+ * completed). The same statistics are written to the report file of each
+ * project by the builder.
+ * 
+ * @author David J. Pearce
+ * 
+ */
+public class BuildStatisticsView extends ViewPart {
+	public static final String ID = "wyclipse.ui.buildStatisticsView";
+
+	private Tree tree;
+
+	/**
+	 * Refreshes this view after each build. Since builds do not run on the UI
+	 * thread, the refresh itself is deferred to it.
+	 */
+	private final IResourceChangeListener listener = new IResourceChangeListener() {
+		public void resourceChanged(IResourceChangeEvent event) {
+			Display display = tree.getDisplay();
+			if (!display.isDisposed()) {
+				display.asyncExec(new Runnable() {
+					public void run() {
+						refresh();
+					}
+				});
+			}
+		}
+	};
+
+	@Override
+	public void createPartControl(Composite parent) {
+		tree = new Tree(parent, SWT.BORDER | SWT.FULL_SELECTION);
+		tree.setHeaderVisible(true);
+		column("Stage", 300);
+		column("Count", 80);
+		column("Time (ms)", 100);
+
+		Action refresh = new Action("Refresh") {
+			public void run() {
+				refresh();
+			}
+		};
+		getViewSite().getActionBars().getToolBarManager().add(refresh);
+
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(listener,
+				IResourceChangeEvent.POST_BUILD);
+		refresh();
+	}
+
+	@Override
+	public void setFocus() {
+		tree.setFocus();
+	}
+
+	@Override
+	public void dispose() {
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(listener);
+		super.dispose();
+	}
+
+	/**
+	 * Repopulate the tree from the statistics of each project. Each project
+	 * lists its stages, followed by the modules built (each of which lists its
+	 * own stages).
+	 */
+	private void refresh() {
+		if (tree.isDisposed()) {
+			return;
+		}
+		tree.setRedraw(false);
+		try {
+			tree.removeAll();
+			for (BuildStatistics statistics : BuildStatistics.all()) {
+				TreeItem project = new TreeItem(tree, SWT.NONE);
+				long elapsed = statistics.elapsed();
+				project.setText(new String[] {
+						statistics.project().getName()
+								+ " " + statistics.kind()
+								+ " ("
+								+ DateFormat.getTimeInstance().format(
+										new Date(statistics.started())) + ")",
+						"", elapsed < 0 ? "" : millis(elapsed) });
+				populate(project, statistics.stages());
+				List<Path.ID> modules = statistics.modules();
+				if (!modules.isEmpty()) {
+					TreeItem item = new TreeItem(project, SWT.NONE);
+					item.setText("Modules");
+					for (Path.ID module : modules) {
+						TreeItem child = new TreeItem(item, SWT.NONE);
+						child.setText(module.toString());
+						populate(child, statistics.stages(module));
+					}
+				}
+				project.setExpanded(true);
+			}
+		} finally {
+			tree.setRedraw(true);
+		}
+	}
+
+	private static void populate(TreeItem parent,
+			Map<String, BuildStatistics.Timer> stages) {
+		for (Map.Entry<String, BuildStatistics.Timer> e : stages.entrySet()) {
+			BuildStatistics.Timer timer = e.getValue();
+			TreeItem item = new TreeItem(parent, SWT.NONE);
+			item.setText(new String[] { e.getKey(),
+					Integer.toString(timer.count()), millis(timer.nanos()) });
+		}
+	}
+
+	private void column(String name, int width) {
+		TreeColumn column = new TreeColumn(tree, SWT.LEFT);
+		column.setText(name);
+		column.setWidth(width);
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.2f", nanos / 1000000.0);
+	}
+}